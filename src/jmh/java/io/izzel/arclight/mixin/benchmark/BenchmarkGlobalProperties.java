@@ -0,0 +1,43 @@
+package io.izzel.arclight.mixin.benchmark;
+
+import org.spongepowered.asm.service.IGlobalPropertyService;
+import org.spongepowered.asm.service.IPropertyKey;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class BenchmarkGlobalProperties implements IGlobalPropertyService {
+
+    private final Map<IPropertyKey, Object> properties = new ConcurrentHashMap<>();
+
+    private record Key(String name) implements IPropertyKey {
+    }
+
+    @Override
+    public IPropertyKey resolveKey(String name) {
+        return new Key(name);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getProperty(IPropertyKey key) {
+        return (T) this.properties.get(key);
+    }
+
+    @Override
+    public void setProperty(IPropertyKey key, Object value) {
+        this.properties.put(key, value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getProperty(IPropertyKey key, T defaultValue) {
+        return (T) this.properties.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public String getPropertyString(IPropertyKey key, String defaultValue) {
+        var value = this.properties.get(key);
+        return value != null ? value.toString() : defaultValue;
+    }
+}
@@ -0,0 +1,135 @@
+package io.izzel.arclight.mixin.benchmark;
+
+import org.objectweb.asm.tree.ClassNode;
+import org.spongepowered.asm.launch.platform.container.ContainerHandleVirtual;
+import org.spongepowered.asm.launch.platform.container.IContainerHandle;
+import org.spongepowered.asm.mixin.MixinEnvironment;
+import org.spongepowered.asm.mixin.transformer.IMixinTransformerFactory;
+import org.spongepowered.asm.service.IClassBytecodeProvider;
+import org.spongepowered.asm.service.IClassProvider;
+import org.spongepowered.asm.service.IClassTracker;
+import org.spongepowered.asm.service.IMixinAuditTrail;
+import org.spongepowered.asm.service.IMixinInternal;
+import org.spongepowered.asm.service.ITransformerProvider;
+import org.spongepowered.asm.service.MixinServiceAbstract;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Mixin service of the benchmarks, classes and mixins are read from the benchmark class path or from the classes
+ * generated by {@link MixinHarness#provide}.
+ */
+public class BenchmarkMixinService extends MixinServiceAbstract implements IClassProvider, IClassBytecodeProvider {
+
+    static volatile IMixinTransformerFactory transformerFactory;
+
+    @Override
+    public String getName() {
+        return "Benchmark";
+    }
+
+    @Override
+    public boolean isValid() {
+        return true;
+    }
+
+    @Override
+    public MixinEnvironment.Phase getInitialPhase() {
+        return MixinEnvironment.Phase.DEFAULT;
+    }
+
+    @Override
+    public MixinEnvironment.CompatibilityLevel getMaxCompatibilityLevel() {
+        return MixinEnvironment.CompatibilityLevel.JAVA_17;
+    }
+
+    @Override
+    public void offer(IMixinInternal internal) {
+        if (internal instanceof IMixinTransformerFactory factory) {
+            transformerFactory = factory;
+        }
+        super.offer(internal);
+    }
+
+    @Override
+    public IClassProvider getClassProvider() {
+        return this;
+    }
+
+    @Override
+    public IClassBytecodeProvider getBytecodeProvider() {
+        return this;
+    }
+
+    @Override
+    public ITransformerProvider getTransformerProvider() {
+        return null;
+    }
+
+    @Override
+    public IClassTracker getClassTracker() {
+        return null;
+    }
+
+    @Override
+    public IMixinAuditTrail getAuditTrail() {
+        return null;
+    }
+
+    @Override
+    public Collection<String> getPlatformAgents() {
+        return List.of();
+    }
+
+    @Override
+    public IContainerHandle getPrimaryContainer() {
+        return new ContainerHandleVirtual(this.getName());
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        return BenchmarkMixinService.class.getClassLoader().getResourceAsStream(name);
+    }
+
+    @Override
+    @Deprecated
+    public URL[] getClassPath() {
+        return new URL[0];
+    }
+
+    @Override
+    public Class<?> findClass(String name) throws ClassNotFoundException {
+        return Class.forName(name);
+    }
+
+    @Override
+    public Class<?> findClass(String name, boolean initialize) throws ClassNotFoundException {
+        return Class.forName(name, initialize, BenchmarkMixinService.class.getClassLoader());
+    }
+
+    @Override
+    public Class<?> findAgentClass(String name, boolean initialize) throws ClassNotFoundException {
+        return this.findClass(name, initialize);
+    }
+
+    @Override
+    public ClassNode getClassNode(String name) throws ClassNotFoundException, IOException {
+        return this.getClassNode(name, true);
+    }
+
+    @Override
+    public ClassNode getClassNode(String name, boolean runTransformers) throws ClassNotFoundException, IOException {
+        var internalName = name.replace('.', '/');
+        var generated = MixinHarness.generated(internalName);
+        return generated != null ? generated : TargetGenerator.read(internalName);
+    }
+
+    // present in later mixin releases
+    public ClassNode getClassNode(String name, boolean runTransformers, int readerFlags) throws ClassNotFoundException, IOException {
+        return this.getClassNode(name, runTransformers);
+    }
+}
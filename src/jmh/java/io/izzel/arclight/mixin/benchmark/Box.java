@@ -0,0 +1,13 @@
+package io.izzel.arclight.mixin.benchmark;
+
+/**
+ * Decorated field and constructor of {@link RuntimeTarget}.
+ */
+public final class Box {
+
+    public int value;
+
+    public Box(int value) {
+        this.value = value;
+    }
+}
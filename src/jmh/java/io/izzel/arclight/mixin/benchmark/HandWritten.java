@@ -0,0 +1,151 @@
+package io.izzel.arclight.mixin.benchmark;
+
+import io.izzel.arclight.mixin.callback.IntCallbackInfo;
+import io.izzel.arclight.mixin.callback.ReusableCallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * {@link RuntimeTarget} with the handlers of the benchmark mixins written in place, the eject shapes call a copy of
+ * their handler with the same callback info the injector allocates.
+ */
+public class HandWritten implements RuntimeShapes {
+
+    public int x = 42;
+    public int below = 7;
+    public Box box = new Box(5);
+
+    @Override
+    public int invoke() {
+        var x = this.x;
+        if (x == Integer.MIN_VALUE) {
+            return 0;
+        }
+        return Sink.call(x) + x + 1;
+    }
+
+    @Override
+    public int spill() {
+        var below = this.below;
+        var x = this.x;
+        if (x == Integer.MIN_VALUE) {
+            return 0;
+        }
+        return below + Sink.call(x) + x + 1;
+    }
+
+    @Override
+    public int outline() {
+        var x = this.x;
+        return Sink.call(x) + x + 1;
+    }
+
+    @Override
+    public int field() {
+        return this.box.value * 2 + 1;
+    }
+
+    @Override
+    public Object create() {
+        return new Box(this.x + 1);
+    }
+
+    @Override
+    public int ret() {
+        return (this.x + 1) * 2;
+    }
+
+    @Override
+    public int head() {
+        if (Sink.cancel) {
+            return 0;
+        }
+        return this.x + 1;
+    }
+
+    @Override
+    public int ejectCallbackInfo() {
+        var callbackInfo = new CallbackInfoReturnable<Integer>("ejectCallbackInfo", true);
+        var result = this.boxedHandler(this.x, callbackInfo);
+        if (callbackInfo.isCancelled()) {
+            return callbackInfo.getReturnValueI();
+        }
+        return result + 1;
+    }
+
+    @Override
+    public int ejectPrimitiveCarrier() {
+        var callbackInfo = new IntCallbackInfo("ejectPrimitiveCarrier", true);
+        var result = this.primitiveHandler(this.x, callbackInfo);
+        if (callbackInfo.isCancelled()) {
+            return callbackInfo.getReturnValueI();
+        }
+        return result + 1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int ejectReusedCallbackInfo() {
+        var callbackInfo = (ReusableCallbackInfo<Integer>) ReusableCallbackInfo.acquire();
+        var result = this.reusableHandler(this.x, callbackInfo);
+        if (callbackInfo.isCancelled()) {
+            var returnValue = callbackInfo.getReturnValueI();
+            callbackInfo.release();
+            return returnValue;
+        }
+        callbackInfo.release();
+        return result + 1;
+    }
+
+    @Override
+    public int ejectWithoutCallbackInfo() {
+        return this.unusedHandler(this.x, null) + 1;
+    }
+
+    // the handler body in place, setReturnValue and return only write locals read after it
+    @Override
+    public int ejectInline() {
+        var x = this.x;
+        var returnValue = 0;
+        var cancelled = false;
+        int result;
+        if (x == Integer.MIN_VALUE) {
+            returnValue = 0;
+            cancelled = true;
+            result = 0;
+        } else {
+            result = Sink.call(x) + x;
+        }
+        if (cancelled) {
+            return returnValue;
+        }
+        return result + 1;
+    }
+
+    private int boxedHandler(int x, CallbackInfoReturnable<Integer> callbackInfo) {
+        if (x == Integer.MIN_VALUE) {
+            callbackInfo.setReturnValue(0);
+            return 0;
+        }
+        return Sink.call(x) + x;
+    }
+
+    private int primitiveHandler(int x, IntCallbackInfo callbackInfo) {
+        if (x == Integer.MIN_VALUE) {
+            callbackInfo.setReturnValueI(0);
+            return 0;
+        }
+        return Sink.call(x) + x;
+    }
+
+    private int reusableHandler(int x, ReusableCallbackInfo<Integer> callbackInfo) {
+        if (x == Integer.MIN_VALUE) {
+            callbackInfo.setReturnValue(0);
+            return 0;
+        }
+        return Sink.call(x) + x;
+    }
+
+    private int unusedHandler(int x, CallbackInfoReturnable<Integer> callbackInfo) {
+        return Sink.call(x) + x;
+    }
+}
@@ -0,0 +1,131 @@
+package io.izzel.arclight.mixin.benchmark;
+
+import io.izzel.arclight.mixin.MixinTools;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.spongepowered.asm.launch.MixinBootstrap;
+import org.spongepowered.asm.mixin.MixinEnvironment;
+import org.spongepowered.asm.mixin.Mixins;
+import org.spongepowered.asm.mixin.transformer.IMixinTransformer;
+import org.spongepowered.asm.service.IGlobalPropertyService;
+import org.spongepowered.asm.service.MixinService;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies the benchmark mixins with the real transformer and defines the result in a class loader of its own.
+ */
+public final class MixinHarness {
+
+    private static final Map<String, byte[]> GENERATED = new ConcurrentHashMap<>();
+    private static final Set<String> CONFIGS = new HashSet<>();
+    private static IMixinTransformer transformer;
+
+    private MixinHarness() {
+    }
+
+    // configs are added on first use, so a benchmark only prepares the mixins of its own targets
+    private static synchronized IMixinTransformer transformer(String config) {
+        if (transformer == null) {
+            checkServices();
+            MixinBootstrap.init();
+            MixinTools.setup();
+            if (!(MixinService.getService() instanceof BenchmarkMixinService)) {
+                throw new IllegalStateException("Mixin selected service " + MixinService.getService().getClass().getName() + " instead of the benchmark service");
+            }
+        }
+        if (CONFIGS.add(config)) {
+            Mixins.addConfiguration(config);
+        }
+        if (transformer == null) {
+            var factory = BenchmarkMixinService.transformerFactory;
+            if (factory == null) {
+                throw new IllegalStateException("Mixin did not offer a transformer factory");
+            }
+            transformer = factory.createTransformer();
+        }
+        return transformer;
+    }
+
+    // mixin takes the first global property service of the class path, the ones of the mixin jar need a launcher
+    private static void checkServices() {
+        var first = ServiceLoader.load(IGlobalPropertyService.class, MixinHarness.class.getClassLoader()).stream().findFirst();
+        if (first.isEmpty() || first.get().type() != BenchmarkGlobalProperties.class) {
+            throw new IllegalStateException("Benchmark resources must precede the mixin jar on the class path, found "
+                + first.map(it -> it.type().getName()).orElse("no global property service"));
+        }
+    }
+
+    /**
+     * Serve {@code classNode} to mixin in place of the class path, for targets that only exist as generated code.
+     */
+    public static void provide(ClassNode classNode) {
+        var writer = new ClassWriter(0);
+        classNode.accept(writer);
+        GENERATED.put(classNode.name, writer.toByteArray());
+    }
+
+    /**
+     * @return a fresh copy of a class given to {@link #provide}, or {@code null}
+     */
+    public static ClassNode generated(String internalName) {
+        var bytes = GENERATED.get(internalName);
+        if (bytes == null) {
+            return null;
+        }
+        var node = new ClassNode();
+        new ClassReader(bytes).accept(node, ClassReader.EXPAND_FRAMES);
+        return node;
+    }
+
+    /**
+     * @return {@code target} read from the class path with the benchmark mixins applied
+     */
+    public static ClassNode transform(Class<?> target) throws IOException, ClassNotFoundException {
+        var node = TargetGenerator.read(target.getName().replace('.', '/'));
+        return transform("mixins.benchmark.json", node);
+    }
+
+    /**
+     * Applies the mixins of {@code config} to {@code classNode} in place.
+     */
+    public static ClassNode transform(String config, ClassNode classNode) {
+        var name = classNode.name.replace('/', '.');
+        if (!transformer(config).transformClass(MixinEnvironment.getCurrentEnvironment(), name, classNode)) {
+            throw new IllegalStateException("No mixins applied to " + name);
+        }
+        return classNode;
+    }
+
+    /**
+     * Define {@code classNode} in a new class loader, other classes resolve through the benchmark class loader.
+     */
+    public static Class<?> define(ClassNode classNode) throws ClassNotFoundException {
+        var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classNode.accept(writer);
+        var bytes = writer.toByteArray();
+        var name = classNode.name.replace('/', '.');
+        var loader = new ClassLoader(MixinHarness.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+                if (!className.equals(name)) {
+                    return super.loadClass(className, resolve);
+                }
+                synchronized (this.getClassLoadingLock(className)) {
+                    var cl = this.findLoadedClass(className);
+                    if (cl == null) {
+                        cl = this.defineClass(className, bytes, 0, bytes.length);
+                    }
+                    return cl;
+                }
+            }
+        };
+        return loader.loadClass(name);
+    }
+}
@@ -0,0 +1,109 @@
+package io.izzel.arclight.mixin.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the code emitted by {@code Decorator} and {@code Ejector} once JIT compiled.
+ * <p>
+ * {@code transformed} is {@link RuntimeTarget} with the mixins of {@code mixins.benchmark.json} applied by the real
+ * transformer, compared with the untransformed target and with the handlers written in place by hand.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RuntimeBenchmark {
+
+    @Param({"baseline", "transformed", "handWritten"})
+    public String variant;
+
+    private RuntimeShapes target;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.target = switch (this.variant) {
+            case "baseline" -> new RuntimeTarget();
+            case "transformed" -> {
+                var cl = MixinHarness.define(MixinHarness.transform(RuntimeTarget.class));
+                yield (RuntimeShapes) cl.getConstructor().newInstance();
+            }
+            case "handWritten" -> new HandWritten();
+            default -> throw new IllegalArgumentException(this.variant);
+        };
+    }
+
+    @Benchmark
+    public int invoke() {
+        return this.target.invoke();
+    }
+
+    @Benchmark
+    public int spill() {
+        return this.target.spill();
+    }
+
+    @Benchmark
+    public int outline() {
+        return this.target.outline();
+    }
+
+    @Benchmark
+    public int field() {
+        return this.target.field();
+    }
+
+    @Benchmark
+    public Object create() {
+        return this.target.create();
+    }
+
+    @Benchmark
+    public int ret() {
+        return this.target.ret();
+    }
+
+    @Benchmark
+    public int head() {
+        return this.target.head();
+    }
+
+    @Benchmark
+    public int ejectCallbackInfo() {
+        return this.target.ejectCallbackInfo();
+    }
+
+    @Benchmark
+    public int ejectPrimitiveCarrier() {
+        return this.target.ejectPrimitiveCarrier();
+    }
+
+    @Benchmark
+    public int ejectReusedCallbackInfo() {
+        return this.target.ejectReusedCallbackInfo();
+    }
+
+    @Benchmark
+    public int ejectWithoutCallbackInfo() {
+        return this.target.ejectWithoutCallbackInfo();
+    }
+
+    @Benchmark
+    public int ejectInline() {
+        return this.target.ejectInline();
+    }
+}
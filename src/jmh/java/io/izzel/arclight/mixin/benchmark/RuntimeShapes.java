@@ -0,0 +1,44 @@
+package io.izzel.arclight.mixin.benchmark;
+
+/**
+ * Code shapes measured by {@link RuntimeBenchmark}, implemented by {@link RuntimeTarget} before and after the
+ * benchmark mixins apply and by {@link HandWritten}.
+ */
+public interface RuntimeShapes {
+
+    // @Decorate at INVOKE
+    int invoke();
+
+    // @Decorate at INVOKE with a value below the arguments, spilled around the handler
+    int spill();
+
+    // @Decorate(inline = false) at INVOKE
+    int outline();
+
+    // @Decorate at FIELD
+    int field();
+
+    // @Decorate at NEW
+    Object create();
+
+    // @Decorate at RETURN
+    int ret();
+
+    // @Decorate(inject = true) at HEAD
+    int head();
+
+    // @Eject with a CallbackInfoReturnable
+    int ejectCallbackInfo();
+
+    // @Eject with a handler declaring the primitive carrier
+    int ejectPrimitiveCarrier();
+
+    // @Eject(reuseCallbackInfo = true)
+    int ejectReusedCallbackInfo();
+
+    // @Eject with a handler that never reads the callback info
+    int ejectWithoutCallbackInfo();
+
+    // @Eject(inline = true)
+    int ejectInline();
+}
@@ -0,0 +1,71 @@
+package io.izzel.arclight.mixin.benchmark;
+
+/**
+ * Target of the benchmark mixins, used as is for the baseline and read back with expanded frames to be transformed.
+ */
+public class RuntimeTarget implements RuntimeShapes {
+
+    public int x = 42;
+    public int below = 7;
+    public Box box = new Box(5);
+
+    @Override
+    public int invoke() {
+        return Sink.call(this.x) + 1;
+    }
+
+    @Override
+    public int spill() {
+        return this.below + Sink.call(this.x) + 1;
+    }
+
+    @Override
+    public int outline() {
+        return Sink.call(this.x) + 1;
+    }
+
+    @Override
+    public int field() {
+        return this.box.value + 1;
+    }
+
+    @Override
+    public Object create() {
+        return new Box(this.x);
+    }
+
+    @Override
+    public int ret() {
+        return this.x + 1;
+    }
+
+    @Override
+    public int head() {
+        return this.x + 1;
+    }
+
+    @Override
+    public int ejectCallbackInfo() {
+        return Sink.call(this.x) + 1;
+    }
+
+    @Override
+    public int ejectPrimitiveCarrier() {
+        return Sink.call(this.x) + 1;
+    }
+
+    @Override
+    public int ejectReusedCallbackInfo() {
+        return Sink.call(this.x) + 1;
+    }
+
+    @Override
+    public int ejectWithoutCallbackInfo() {
+        return Sink.call(this.x) + 1;
+    }
+
+    @Override
+    public int ejectInline() {
+        return Sink.call(this.x) + 1;
+    }
+}
@@ -0,0 +1,17 @@
+package io.izzel.arclight.mixin.benchmark;
+
+/**
+ * Ejected or decorated call of generated and benchmark targets.
+ */
+public final class Sink {
+
+    // read by the HEAD decoration, never set
+    public static boolean cancel;
+
+    private Sink() {
+    }
+
+    public static int call(int x) {
+        return x * 2;
+    }
+}
@@ -0,0 +1,131 @@
+package io.izzel.arclight.mixin.benchmark;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic target classes of controlled size, read back with expanded frames like mixin targets.
+ */
+public final class TargetGenerator {
+
+    public static final String OWNER = "io/izzel/arclight/mixin/benchmark/GeneratedTarget";
+    public static final String SINK = "io/izzel/arclight/mixin/benchmark/Sink";
+    // targets of the generated mixins, transformed end to end by the harness
+    public static final String DECORATE_OWNER = "io/izzel/arclight/mixin/benchmark/GeneratedDecorateTarget";
+    public static final String EJECT_OWNER = "io/izzel/arclight/mixin/benchmark/GeneratedEjectTarget";
+
+    private TargetGenerator() {
+    }
+
+    /**
+     * Generates {@code static int target(int)} with {@code loopDepth} nested loops around a body of {@code length}
+     * arithmetic statements, {@code branches} if/else blocks and {@code points} calls to {@code Sink#call(I)I}.
+     */
+    public static ClassNode generate(int length, int branches, int loopDepth, int points) {
+        return generate(OWNER, length, branches, loopDepth, points);
+    }
+
+    public static ClassNode generate(String owner, int length, int branches, int loopDepth, int points) {
+        var cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V17, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, owner, null, "java/lang/Object", null);
+        var mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "target", "(I)I", null, null);
+        mv.visitCode();
+        var heads = new ArrayList<Label>();
+        var exits = new ArrayList<Label>();
+        for (int depth = 0; depth < loopDepth; depth++) {
+            var counter = 1 + depth;
+            var head = new Label();
+            var exit = new Label();
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitVarInsn(Opcodes.ISTORE, counter);
+            mv.visitLabel(head);
+            mv.visitVarInsn(Opcodes.ILOAD, counter);
+            mv.visitIntInsn(Opcodes.BIPUSH, 10);
+            mv.visitJumpInsn(Opcodes.IF_ICMPGE, exit);
+            heads.add(head);
+            exits.add(exit);
+        }
+        var statements = Math.max(length, branches + points);
+        for (int i = 0; i < statements; i++) {
+            if (i < branches) {
+                var otherwise = new Label();
+                var merge = new Label();
+                mv.visitVarInsn(Opcodes.ILOAD, 0);
+                mv.visitIntInsn(Opcodes.BIPUSH, i);
+                mv.visitJumpInsn(Opcodes.IF_ICMPLE, otherwise);
+                statement(mv, i, i < points);
+                mv.visitJumpInsn(Opcodes.GOTO, merge);
+                mv.visitLabel(otherwise);
+                mv.visitIincInsn(0, -1);
+                mv.visitLabel(merge);
+            } else {
+                statement(mv, i, i < points);
+            }
+        }
+        for (int depth = loopDepth - 1; depth >= 0; depth--) {
+            mv.visitIincInsn(1 + depth, 1);
+            mv.visitJumpInsn(Opcodes.GOTO, heads.get(depth));
+            mv.visitLabel(exits.get(depth));
+        }
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        var node = new ClassNode();
+        new ClassReader(cw.toByteArray()).accept(node, ClassReader.EXPAND_FRAMES);
+        return node;
+    }
+
+    // x = x * 31 + i, or x = Sink.call(x) + i for injection points
+    private static void statement(MethodVisitor mv, int i, boolean point) {
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        if (point) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, SINK, "call", "(I)I", false);
+        } else {
+            mv.visitIntInsn(Opcodes.BIPUSH, 31);
+            mv.visitInsn(Opcodes.IMUL);
+        }
+        mv.visitIntInsn(Opcodes.SIPUSH, i);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitVarInsn(Opcodes.ISTORE, 0);
+    }
+
+    /**
+     * Reads a class of the benchmark class path the same way.
+     */
+    public static ClassNode read(String internalName) throws IOException, ClassNotFoundException {
+        try (var in = TargetGenerator.class.getClassLoader().getResourceAsStream(internalName + ".class")) {
+            if (in == null) {
+                throw new ClassNotFoundException(internalName);
+            }
+            var node = new ClassNode();
+            new ClassReader(in).accept(node, ClassReader.EXPAND_FRAMES);
+            return node;
+        }
+    }
+
+    public static MethodNode target(ClassNode classNode) {
+        return classNode.methods.stream().filter(it -> it.name.equals("target")).findFirst().orElseThrow();
+    }
+
+    public static List<MethodInsnNode> injectionPoints(MethodNode method) {
+        var points = new ArrayList<MethodInsnNode>();
+        for (var insn : method.instructions) {
+            if (insn instanceof MethodInsnNode mn && mn.owner.equals(SINK)) {
+                points.add(mn);
+            }
+        }
+        return points;
+    }
+}
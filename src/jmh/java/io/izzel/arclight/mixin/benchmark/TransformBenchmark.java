@@ -0,0 +1,109 @@
+package io.izzel.arclight.mixin.benchmark;
+
+import io.izzel.arclight.mixin.injector.ControlFlowGraph;
+import io.izzel.arclight.mixin.injector.FrameSolver;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/**
+ * Transform time analyses run by {@code Decorator} and {@code Ejector} for every injection point of a target, and
+ * the whole transformation of generated targets by the real transformer with the mixins of
+ * {@code mixins.benchmark.generated.json}. Allocation is reported by the {@code gc} profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TransformBenchmark {
+
+    @Param({"64", "512"})
+    public int length;
+
+    @Param({"0", "16"})
+    public int branches;
+
+    @Param({"0", "3"})
+    public int loopDepth;
+
+    @Param({"1", "16"})
+    public int points;
+
+    private ClassNode classNode;
+    private MethodNode method;
+    private List<MethodInsnNode> injectionPoints;
+
+    @Setup
+    public void setup() {
+        this.classNode = TargetGenerator.generate(this.length, this.branches, this.loopDepth, this.points);
+        this.method = TargetGenerator.target(this.classNode);
+        this.injectionPoints = TargetGenerator.injectionPoints(this.method);
+    }
+
+    @State(Scope.Thread)
+    public static class Targets {
+
+        private ClassNode decorate;
+        private ClassNode eject;
+
+        @Setup(Level.Trial)
+        public void provide(TransformBenchmark benchmark) {
+            // mixin resolves both targets when the config is prepared
+            for (var owner : new String[]{TargetGenerator.DECORATE_OWNER, TargetGenerator.EJECT_OWNER}) {
+                MixinHarness.provide(TargetGenerator.generate(owner, benchmark.length, benchmark.branches, benchmark.loopDepth, benchmark.points));
+            }
+        }
+
+        // the transformer changes its input, every invocation starts from the generated class
+        @Setup(Level.Invocation)
+        public void copy() {
+            this.decorate = MixinHarness.generated(TargetGenerator.DECORATE_OWNER);
+            this.eject = MixinHarness.generated(TargetGenerator.EJECT_OWNER);
+        }
+    }
+
+    @Benchmark
+    public ClassNode decorate(Targets targets) {
+        return MixinHarness.transform("mixins.benchmark.generated.json", targets.decorate);
+    }
+
+    @Benchmark
+    public ClassNode eject(Targets targets) {
+        return MixinHarness.transform("mixins.benchmark.generated.json", targets.eject);
+    }
+
+    // frames before every injection point, as guardInline and Ejector inline mode request them
+    @Benchmark
+    public void frames(Blackhole blackhole) {
+        var solver = new FrameSolver(this.classNode.name, this.method);
+        for (var point : this.injectionPoints) {
+            blackhole.consume(solver.adapterAt(point));
+        }
+    }
+
+    // code structure of every injection point, as createStructure requests it
+    @Benchmark
+    public void structure(Blackhole blackhole) {
+        var graph = new ControlFlowGraph(this.method);
+        for (var point : this.injectionPoints) {
+            blackhole.consume(graph.loopStart(point));
+            blackhole.consume(graph.loopEnd(point));
+            blackhole.consume(graph.codeBlockEnd(point));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.izzel.arclight.mixin.benchmark.mixin;
+
+import io.izzel.arclight.mixin.Decorate;
+import io.izzel.arclight.mixin.DecorationOps;
+import io.izzel.arclight.mixin.benchmark.Box;
+import io.izzel.arclight.mixin.benchmark.RuntimeTarget;
+import io.izzel.arclight.mixin.benchmark.Sink;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+
+@Mixin(value = RuntimeTarget.class, remap = false)
+public abstract class DecorateMixin {
+
+    private static final String SINK_CALL = "Lio/izzel/arclight/mixin/benchmark/Sink;call(I)I";
+
+    @Decorate(method = "invoke", at = @At(value = "INVOKE", target = SINK_CALL), remap = false)
+    private int decorateInvoke(int x) throws Throwable {
+        if (x == Integer.MIN_VALUE) {
+            DecorationOps.cancel().invoke(0);
+            return 0;
+        }
+        return (int) DecorationOps.callsite().invoke(x) + x;
+    }
+
+    @Decorate(method = "spill", at = @At(value = "INVOKE", target = SINK_CALL), remap = false)
+    private int decorateSpill(int x) throws Throwable {
+        if (x == Integer.MIN_VALUE) {
+            DecorationOps.cancel().invoke(0);
+            return 0;
+        }
+        return (int) DecorationOps.callsite().invoke(x) + x;
+    }
+
+    @Decorate(method = "outline", at = @At(value = "INVOKE", target = SINK_CALL), remap = false, inline = false)
+    private int decorateOutline(int x) throws Throwable {
+        return (int) DecorationOps.callsite().invoke(x) + x;
+    }
+
+    @Decorate(method = "field", at = @At(value = "FIELD", target = "Lio/izzel/arclight/mixin/benchmark/Box;value:I"), remap = false)
+    private int decorateField(Box box) throws Throwable {
+        return (int) DecorationOps.callsite().invoke(box) * 2;
+    }
+
+    @Decorate(method = "create", at = @At(value = "NEW", target = "io/izzel/arclight/mixin/benchmark/Box"), remap = false)
+    private Box decorateCreate(int value) throws Throwable {
+        return (Box) DecorationOps.callsite().invoke(value + 1);
+    }
+
+    @Decorate(method = "ret", at = @At("RETURN"), remap = false)
+    private void decorateReturn(int value) throws Throwable {
+        DecorationOps.callsite().invoke(value * 2);
+    }
+
+    @Decorate(method = "head", at = @At("HEAD"), remap = false, inject = true)
+    private void decorateHead() throws Throwable {
+        if (Sink.cancel) {
+            DecorationOps.cancel().invoke(0);
+            return;
+        }
+    }
+}
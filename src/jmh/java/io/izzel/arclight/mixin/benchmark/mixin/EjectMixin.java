@@ -0,0 +1,57 @@
+package io.izzel.arclight.mixin.benchmark.mixin;
+
+import io.izzel.arclight.mixin.Eject;
+import io.izzel.arclight.mixin.benchmark.RuntimeTarget;
+import io.izzel.arclight.mixin.benchmark.Sink;
+import io.izzel.arclight.mixin.callback.IntCallbackInfo;
+import io.izzel.arclight.mixin.callback.ReusableCallbackInfo;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+@Mixin(value = RuntimeTarget.class, remap = false)
+public abstract class EjectMixin {
+
+    private static final String SINK_CALL = "Lio/izzel/arclight/mixin/benchmark/Sink;call(I)I";
+
+    @Eject(method = "ejectCallbackInfo", at = @At(value = "INVOKE", target = SINK_CALL), remap = false)
+    private int boxedHandler(int x, CallbackInfoReturnable<Integer> callbackInfo) {
+        if (x == Integer.MIN_VALUE) {
+            callbackInfo.setReturnValue(0);
+            return 0;
+        }
+        return Sink.call(x) + x;
+    }
+
+    @Eject(method = "ejectPrimitiveCarrier", at = @At(value = "INVOKE", target = SINK_CALL), remap = false)
+    private int primitiveHandler(int x, IntCallbackInfo callbackInfo) {
+        if (x == Integer.MIN_VALUE) {
+            callbackInfo.setReturnValueI(0);
+            return 0;
+        }
+        return Sink.call(x) + x;
+    }
+
+    @Eject(method = "ejectReusedCallbackInfo", at = @At(value = "INVOKE", target = SINK_CALL), remap = false, reuseCallbackInfo = true)
+    private int reusableHandler(int x, ReusableCallbackInfo<Integer> callbackInfo) {
+        if (x == Integer.MIN_VALUE) {
+            callbackInfo.setReturnValue(0);
+            return 0;
+        }
+        return Sink.call(x) + x;
+    }
+
+    @Eject(method = "ejectWithoutCallbackInfo", at = @At(value = "INVOKE", target = SINK_CALL), remap = false)
+    private int unusedHandler(int x, CallbackInfoReturnable<Integer> callbackInfo) {
+        return Sink.call(x) + x;
+    }
+
+    @Eject(method = "ejectInline", at = @At(value = "INVOKE", target = SINK_CALL), remap = false, inline = true)
+    private int inlineHandler(int x, CallbackInfoReturnable<Integer> callbackInfo) {
+        if (x == Integer.MIN_VALUE) {
+            callbackInfo.setReturnValue(0);
+            return 0;
+        }
+        return Sink.call(x) + x;
+    }
+}
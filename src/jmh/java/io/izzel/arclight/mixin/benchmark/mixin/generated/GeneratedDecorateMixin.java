@@ -0,0 +1,19 @@
+package io.izzel.arclight.mixin.benchmark.mixin.generated;
+
+import io.izzel.arclight.mixin.Decorate;
+import io.izzel.arclight.mixin.DecorationOps;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+
+@Mixin(targets = "io.izzel.arclight.mixin.benchmark.GeneratedDecorateTarget", remap = false)
+public abstract class GeneratedDecorateMixin {
+
+    @Decorate(method = "target", at = @At(value = "INVOKE", target = "Lio/izzel/arclight/mixin/benchmark/Sink;call(I)I"), remap = false)
+    private static int decorate(int x) throws Throwable {
+        if (x == Integer.MIN_VALUE) {
+            DecorationOps.cancel().invoke(0);
+            return 0;
+        }
+        return (int) DecorationOps.callsite().invoke(x) + x;
+    }
+}
@@ -0,0 +1,20 @@
+package io.izzel.arclight.mixin.benchmark.mixin.generated;
+
+import io.izzel.arclight.mixin.Eject;
+import io.izzel.arclight.mixin.benchmark.Sink;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+@Mixin(targets = "io.izzel.arclight.mixin.benchmark.GeneratedEjectTarget", remap = false)
+public abstract class GeneratedEjectMixin {
+
+    @Eject(method = "target", at = @At(value = "INVOKE", target = "Lio/izzel/arclight/mixin/benchmark/Sink;call(I)I"), remap = false)
+    private static int eject(int x, CallbackInfoReturnable<Integer> callbackInfo) {
+        if (x == Integer.MIN_VALUE) {
+            callbackInfo.setReturnValue(0);
+            return 0;
+        }
+        return Sink.call(x) + x;
+    }
+}
@@ -32,4 +32,13 @@ public @interface Decorate {
     String constraints() default "";
 
     boolean inject() default false;
+
+    /**
+     * Copy the handler body into the target. When false the handler is compiled into a private synthetic method
+     * on the target class with the callsite specialized in place, and the target only pays for one call.
+     * <p>
+     * Out of line handlers only decorate INVOKE, FIELD and injection points, must not jump, assign captured
+     * arguments or use {@code @Local(allocate)}, and may only cancel void targets from void handlers.
+     */
+    boolean inline() default true;
 }
@@ -55,6 +55,17 @@ public interface DecorationOps {
         throw new IllegalStateException("Not implemented.");
     }
 
+    /**
+     * A feature flag resolved when the decoration is injected, see {@link MixinTools#setupFlags}.
+     * <p>
+     * Branches on a flag are folded and code left unreachable is removed from the handler before it is inlined.
+     *
+     * @return value of the flag, false if not set
+     */
+    static boolean flag(String name) {
+        throw new IllegalStateException("Not implemented.");
+    }
+
     static Throwable jumpToLoopStart() {
         return new Throwable("Not implemented.");
     }
@@ -27,4 +27,21 @@ public @interface Eject {
     int allow() default -1;
 
     String constraints() default "";
+
+    /**
+     * Take the callback info from a per thread pool instead of allocating one for every call.
+     * <p>
+     * The handler declares {@code ReusableCallbackInfo} in place of the callback info. It may only call methods
+     * on it, it must not be stored, passed or captured.
+     */
+    boolean reuseCallbackInfo() default false;
+
+    /**
+     * Copy the handler body into the target instead of calling it, {@code cancel} and {@code setReturnValue}
+     * become a direct return from the target.
+     * <p>
+     * The callback info may only be used as a receiver of {@code cancel}, {@code setReturnValue} or
+     * {@code isCancellable}, followed by a return.
+     */
+    boolean inline() default false;
 }
@@ -1,22 +1,89 @@
 package io.izzel.arclight.mixin;
 
+import io.izzel.arclight.mixin.cache.TransformCache;
+import io.izzel.arclight.mixin.injector.DecorationFlags;
 import io.izzel.arclight.mixin.injector.Decorator;
 import io.izzel.arclight.mixin.injector.DecoratorInfo;
 import io.izzel.arclight.mixin.injector.EjectorInfo;
+import io.izzel.arclight.mixin.injector.InjectedRegions;
+import io.izzel.arclight.mixin.injector.PeepholeOptimizer;
 import org.objectweb.asm.tree.ClassNode;
 import org.spongepowered.asm.mixin.injection.struct.InjectionInfo;
+import org.spongepowered.asm.service.MixinService;
 
-import java.util.Arrays;
-import java.util.concurrent.ThreadLocalRandom;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.UnaryOperator;
 
 public class MixinTools {
 
+    private static volatile TransformCache cache;
+
     public static void setup() {
         InjectionInfo.register(EjectorInfo.class);
         InjectionInfo.register(DecoratorInfo.class);
     }
 
+    /**
+     * Keep transformed classes in {@code directory}, replacing and closing the previous cache.
+     * <p>
+     * Mixins run inside the transformer of the caller, which has to route classes through {@link #transformCached}.
+     */
+    public static synchronized void setupCache(Path directory) throws IOException {
+        var previous = cache;
+        cache = new TransformCache(directory);
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    public static TransformCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Return the bytes cached for {@code original} and {@code mixins}, or run {@code transformer} and cache its result.
+     * Without a cache, or if the cache fails, {@code transformer} runs as usual.
+     *
+     * @param mixins      class bytes of the mixins applied to the class by name
+     * @param transformer applies the mixins and writes the class, {@link #onPostMixin} runs inside it
+     */
+    public static byte[] transformCached(String name, byte[] original, Map<String, byte[]> mixins, UnaryOperator<byte[]> transformer) {
+        var cache = MixinTools.cache;
+        if (cache == null) {
+            return transformer.apply(original);
+        }
+        var key = TransformCache.key(original, mixins);
+        try {
+            var cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        } catch (IOException e) {
+            MixinService.getService().getLogger("mixin").warn("Failed to read cached class {}: {}", name, e);
+        }
+        var transformed = transformer.apply(original);
+        try {
+            cache.put(key, transformed);
+        } catch (IOException e) {
+            MixinService.getService().getLogger("mixin").warn("Failed to cache class {}: {}", name, e);
+        }
+        return transformed;
+    }
+
+    /**
+     * Resolve {@link DecorationOps#flag} from {@code flags} instead of system properties, must be called before mixins apply.
+     */
+    public static void setupFlags(Properties flags) {
+        DecorationFlags.setSource(flags);
+    }
+
     public static void onPostMixin(ClassNode classNode) {
         Decorator.postMixin(classNode);
+        for (var entry : InjectedRegions.take(classNode).entrySet()) {
+            PeepholeOptimizer.optimize(entry.getKey(), entry.getValue());
+        }
     }
 }
@@ -1,20 +1,56 @@
 package io.izzel.arclight.mixin.ap;
 
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+import io.izzel.arclight.mixin.Decorate;
+import io.izzel.arclight.mixin.DecorationOps;
+import io.izzel.arclight.mixin.Eject;
+import io.izzel.arclight.mixin.Local;
 import io.izzel.arclight.mixin.MixinTools;
-import io.izzel.arclight.mixin.injector.EjectorInfo;
-import org.spongepowered.asm.mixin.injection.struct.InjectionInfo;
+import io.izzel.arclight.mixin.injector.HandlerIndex;
 import org.spongepowered.asm.util.logging.MessageRouter;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.SourceVersion;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
-import java.util.Collections;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
+/**
+ * Writes the {@link HandlerIndex} of every class declaring {@code @Decorate} or {@code @Eject} handlers.
+ * <p>
+ * Each index only depends on the class it describes, the processor is registered as an isolating Gradle
+ * incremental processor. Used parameters and {@code DecorationOps} markers are only indexed when the javac trees are
+ * reachable, otherwise they are left out of the index and derived from the handler bytecode at runtime.
+ */
 public class EjectProvider extends AbstractProcessor {
 
+    private static final String LOCAL = Local.class.getCanonicalName();
+    private static final String DECORATION_OPS = DecorationOps.class.getCanonicalName();
+
     static {
         try {
             MessageRouter.setMessager(new StdoutMessenger());
@@ -22,24 +58,210 @@ public class EjectProvider extends AbstractProcessor {
         }
     }
 
+    private Trees trees;
+
     @Override
     public synchronized void init(ProcessingEnvironment processingEnv) {
         super.init(processingEnv);
         MixinTools.setup();
+        this.trees = trees(processingEnv);
+        if (this.trees == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Compiler trees are not available from "
+                + processingEnv.getClass().getName() + ", used parameters and DecorationOps markers of handlers "
+                + "are derived from their bytecode at runtime");
+        }
+    }
+
+    private static Trees trees(ProcessingEnvironment env) {
+        // build tools wrap the environment of incremental processors, look through the wrappers for the javac one
+        for (int depth = 0; env != null && depth < 4; depth++) {
+            try {
+                return Trees.instance(env);
+            } catch (IllegalArgumentException e) {
+                env = unwrap(env);
+            } catch (LinkageError e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static ProcessingEnvironment unwrap(ProcessingEnvironment env) {
+        for (Class<?> cl = env.getClass(); cl != null && cl != Object.class; cl = cl.getSuperclass()) {
+            for (var field : cl.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && ProcessingEnvironment.class.isAssignableFrom(field.getType())) {
+                    try {
+                        field.setAccessible(true);
+                        var delegate = (ProcessingEnvironment) field.get(env);
+                        if (delegate != null && delegate != env) {
+                            return delegate;
+                        }
+                    } catch (ReflectiveOperationException | RuntimeException ignored) {
+                    }
+                }
+            }
+        }
+        return null;
     }
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        var handlers = new LinkedHashMap<TypeElement, Map<String, HandlerIndex.Handler>>();
+        for (var annotation : annotations) {
+            for (var element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.METHOD) {
+                    continue;
+                }
+                var method = (ExecutableElement) element;
+                var descriptor = this.descriptor(method);
+                var handler = this.handler(method);
+                // handlers with unresolved types are left to the runtime
+                if (descriptor != null && handler != null) {
+                    handlers.computeIfAbsent((TypeElement) method.getEnclosingElement(), k -> new TreeMap<>())
+                        .put(method.getSimpleName() + descriptor, handler);
+                }
+            }
+        }
+        for (var entry : handlers.entrySet()) {
+            var type = entry.getKey();
+            var name = this.processingEnv.getElementUtils().getBinaryName(type).toString();
+            try {
+                var resource = this.processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    HandlerIndex.DIRECTORY + name + ".properties", type);
+                try (var writer = new OutputStreamWriter(resource.openOutputStream(), StandardCharsets.UTF_8)) {
+                    HandlerIndex.write(entry.getValue(), writer);
+                }
+            } catch (IOException e) {
+                this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Failed to write handler index of " + name + ": " + e, type);
+            }
+        }
         return true;
     }
 
+    private HandlerIndex.Handler handler(ExecutableElement method) {
+        var parameters = method.getParameters();
+        var slots = new int[parameters.size() + 1];
+        var locals = new HandlerIndex.Local[parameters.size()];
+        var valid = true;
+        for (int i = 0; i < parameters.size(); i++) {
+            var parameter = parameters.get(i);
+            var kind = this.processingEnv.getTypeUtils().erasure(parameter.asType()).getKind();
+            slots[i + 1] = slots[i] + (kind == TypeKind.LONG || kind == TypeKind.DOUBLE ? 2 : 1);
+            for (var mirror : parameter.getAnnotationMirrors()) {
+                if (!((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(LOCAL)) {
+                    continue;
+                }
+                Integer ordinal = null;
+                String allocate = null;
+                for (var value : mirror.getElementValues().entrySet()) {
+                    switch (value.getKey().getSimpleName().toString()) {
+                        case "ordinal" -> ordinal = (Integer) value.getValue().getValue();
+                        case "allocate" -> allocate = (String) value.getValue().getValue();
+                    }
+                }
+                if (ordinal != null && allocate != null) {
+                    this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Only one of 'ordinal' and 'allocate' can exist on @Local", parameter, mirror);
+                    valid = false;
+                } else if (ordinal == null && allocate == null) {
+                    this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Invalid @Local, one of 'ordinal' and 'allocate' is required", parameter, mirror);
+                    valid = false;
+                }
+                locals[i] = new HandlerIndex.Local(ordinal, allocate);
+            }
+        }
+        if (!valid) {
+            return null;
+        }
+        BitSet used = null;
+        List<String> markers = null;
+        var path = this.trees == null ? null : this.trees.getPath(method);
+        if (path != null && path.getLeaf() instanceof MethodTree tree && tree.getBody() != null) {
+            var scanner = new BodyScanner(method);
+            scanner.scan(new TreePath(path, tree.getBody()), null);
+            used = scanner.used;
+            markers = scanner.markers;
+        }
+        return new HandlerIndex.Handler(slots, locals, used, markers);
+    }
+
+    private class BodyScanner extends TreePathScanner<Void, Void> {
+
+        private final ExecutableElement method;
+        private final BitSet used = new BitSet();
+        private final List<String> markers = new ArrayList<>();
+
+        BodyScanner(ExecutableElement method) {
+            this.method = method;
+        }
+
+        @Override
+        public Void visitIdentifier(IdentifierTree node, Void unused) {
+            var index = this.method.getParameters().indexOf(trees.getElement(this.getCurrentPath()));
+            if (index >= 0) {
+                this.used.set(index);
+            }
+            return super.visitIdentifier(node, unused);
+        }
+
+        @Override
+        public Void visitMethodInvocation(MethodInvocationTree node, Void unused) {
+            // recorded before the arguments, in evaluation order
+            var invoked = trees.getElement(new TreePath(this.getCurrentPath(), node.getMethodSelect()));
+            if (invoked != null && invoked.getKind() == ElementKind.METHOD
+                && ((TypeElement) invoked.getEnclosingElement()).getQualifiedName().contentEquals(DECORATION_OPS)) {
+                this.markers.add(invoked.getSimpleName().toString());
+            }
+            return super.visitMethodInvocation(node, unused);
+        }
+    }
+
+    private String descriptor(ExecutableElement method) {
+        var builder = new StringBuilder("(");
+        for (var parameter : method.getParameters()) {
+            var descriptor = this.descriptor(parameter.asType());
+            if (descriptor == null) {
+                return null;
+            }
+            builder.append(descriptor);
+        }
+        var returnType = this.descriptor(method.getReturnType());
+        return returnType == null ? null : builder.append(')').append(returnType).toString();
+    }
+
+    private String descriptor(TypeMirror type) {
+        var erased = this.processingEnv.getTypeUtils().erasure(type);
+        return switch (erased.getKind()) {
+            case BOOLEAN -> "Z";
+            case BYTE -> "B";
+            case SHORT -> "S";
+            case CHAR -> "C";
+            case INT -> "I";
+            case LONG -> "J";
+            case FLOAT -> "F";
+            case DOUBLE -> "D";
+            case VOID -> "V";
+            case ARRAY -> {
+                var component = this.descriptor(((ArrayType) erased).getComponentType());
+                yield component == null ? null : "[" + component;
+            }
+            case DECLARED -> {
+                var element = (TypeElement) ((DeclaredType) erased).asElement();
+                yield "L" + this.processingEnv.getElementUtils().getBinaryName(element).toString().replace('.', '/') + ";";
+            }
+            default -> null;
+        };
+    }
+
     @Override
     public Set<String> getSupportedAnnotationTypes() {
-        return Collections.emptySet();
+        return Set.of(Decorate.class.getCanonicalName(), Eject.class.getCanonicalName());
     }
 
     @Override
     public SourceVersion getSupportedSourceVersion() {
-        return SourceVersion.RELEASE_8;
+        return SourceVersion.latestSupported();
     }
 }
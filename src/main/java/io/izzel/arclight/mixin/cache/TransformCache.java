@@ -0,0 +1,249 @@
+package io.izzel.arclight.mixin.cache;
+
+import io.izzel.arclight.mixin.MixinTools;
+import io.izzel.arclight.mixin.injector.DecorationFlags;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.ZipFile;
+
+/**
+ * Transformed class bytes on disk, keyed by a hash of the original class bytes, the applied mixins, the values of
+ * the {@code DecorationOps#flag} names they resolve and the mixin-tools classes that wrote them.
+ * <p>
+ * {@code index.bin} is a memory mapped open addressing table of key, offset, length and checksum,
+ * class bytes are appended to {@code data.bin}.
+ */
+public class TransformCache implements Closeable {
+
+    private static final int MAGIC = 0x4d544331;
+    private static final int HEADER = 12;
+    private static final int KEY_SIZE = 32;
+    private static final int SLOT = KEY_SIZE + 8 + 4 + 4;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    // snapshot builds share a version, the class files of the running injectors identify the build instead
+    private static final byte[] BUILD = build();
+
+    private final FileChannel data;
+    private final FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity, size;
+
+    public TransformCache(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.data = FileChannel.open(directory.resolve("data.bin"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(directory.resolve("index.bin"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        var valid = false;
+        if (this.indexChannel.size() >= HEADER) {
+            var header = this.indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            var capacity = header.getInt(4);
+            valid = header.getInt(0) == MAGIC && capacity > 0 && Integer.bitCount(capacity) == 1
+                && this.indexChannel.size() >= HEADER + (long) capacity * SLOT;
+            if (valid) {
+                this.capacity = capacity;
+                this.size = header.getInt(8);
+                this.index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+            }
+        }
+        if (!valid) {
+            this.data.truncate(0);
+            this.indexChannel.truncate(0);
+            this.remap(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * @param mixins class bytes of the mixins applied to the class by name, the order is not significant
+     */
+    public static byte[] key(byte[] original, Map<String, byte[]> mixins) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(BUILD);
+            digest.update(original);
+            var flags = new TreeSet<String>();
+            for (var mixin : new TreeMap<>(mixins).entrySet()) {
+                // lengths keep the boundaries between names and contents unambiguous
+                var name = mixin.getKey().getBytes(StandardCharsets.UTF_8);
+                digest.update(ByteBuffer.allocate(8).putInt(name.length).putInt(mixin.getValue().length).array());
+                digest.update(name);
+                digest.update(mixin.getValue());
+                flags.addAll(DecorationFlags.names(mixin.getValue()));
+            }
+            // pruned handler code depends on the flag values of this run
+            for (var flag : flags) {
+                var entry = (flag + "=" + DecorationFlags.resolve(flag)).getBytes(StandardCharsets.UTF_8);
+                digest.update(ByteBuffer.allocate(4).putInt(entry.length).array());
+                digest.update(entry);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // hash of the mixin-tools class files in the jar or directory this class was loaded from
+    private static byte[] build() {
+        var prefix = MixinTools.class.getPackageName().replace('.', '/') + "/";
+        var files = new TreeMap<String, byte[]>();
+        try {
+            var root = Path.of(TransformCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isDirectory(root)) {
+                try (var paths = Files.walk(root.resolve(prefix))) {
+                    for (var path : paths.filter(Files::isRegularFile).toList()) {
+                        files.put(root.relativize(path).toString().replace('\\', '/'), Files.readAllBytes(path));
+                    }
+                }
+            } else {
+                try (var zip = new ZipFile(root.toFile())) {
+                    for (var entry : zip.stream().filter(it -> !it.isDirectory() && it.getName().startsWith(prefix)).toList()) {
+                        try (var in = zip.getInputStream(entry)) {
+                            files.put(entry.getName(), in.readAllBytes());
+                        }
+                    }
+                }
+            }
+            if (files.isEmpty()) {
+                throw new IOException("No classes under " + prefix + " in " + root);
+            }
+            var digest = MessageDigest.getInstance("SHA-256");
+            for (var file : files.entrySet()) {
+                var name = file.getKey().getBytes(StandardCharsets.UTF_8);
+                digest.update(ByteBuffer.allocate(8).putInt(name.length).putInt(file.getValue().length).array());
+                digest.update(name);
+                digest.update(file.getValue());
+            }
+            return digest.digest();
+        } catch (Exception e) {
+            // the classes cannot be read, entries are only reused within this run
+            var random = new byte[KEY_SIZE];
+            new SecureRandom().nextBytes(random);
+            return random;
+        }
+    }
+
+    /**
+     * @return transformed class bytes, or null if absent or damaged
+     */
+    public synchronized byte[] get(byte[] key) throws IOException {
+        var slot = this.find(key);
+        if (slot < 0 || this.index.getInt(slot + KEY_SIZE + 8) == 0) {
+            return null;
+        }
+        var offset = this.index.getLong(slot + KEY_SIZE);
+        var length = this.index.getInt(slot + KEY_SIZE + 8);
+        if (offset < 0 || offset + length > this.data.size()) {
+            return null;
+        }
+        var buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.data.read(buffer, offset + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        var bytes = buffer.array();
+        return checksum(bytes) == this.index.getInt(slot + KEY_SIZE + 12) ? bytes : null;
+    }
+
+    public synchronized void put(byte[] key, byte[] transformed) throws IOException {
+        if (transformed.length == 0 || this.index.getInt(this.find(key) + KEY_SIZE + 8) != 0) {
+            return;
+        }
+        var offset = this.data.size();
+        var buffer = ByteBuffer.wrap(transformed);
+        while (buffer.hasRemaining()) {
+            this.data.write(buffer, offset + buffer.position());
+        }
+        this.insert(key, offset, transformed.length, checksum(transformed));
+        if (++this.size * 4L > this.capacity * 3L) {
+            this.grow();
+        }
+        this.index.putInt(8, this.size);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.data.force(false);
+        this.index.force();
+        this.data.close();
+        this.indexChannel.close();
+    }
+
+    // slot of key, or the empty slot it would take
+    private int find(byte[] key) {
+        var mask = this.capacity - 1;
+        var i = ((key[0] & 0xFF) << 24 | (key[1] & 0xFF) << 16 | (key[2] & 0xFF) << 8 | key[3] & 0xFF) & mask;
+        var stored = new byte[KEY_SIZE];
+        while (true) {
+            var slot = HEADER + i * SLOT;
+            if (this.index.getInt(slot + KEY_SIZE + 8) == 0) {
+                return slot;
+            }
+            this.index.get(slot, stored);
+            if (Arrays.equals(stored, key)) {
+                return slot;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void insert(byte[] key, long offset, int length, int checksum) {
+        var slot = this.find(key);
+        this.index.put(slot, key);
+        this.index.putLong(slot + KEY_SIZE, offset);
+        this.index.putInt(slot + KEY_SIZE + 12, checksum);
+        this.index.putInt(slot + KEY_SIZE + 8, length);
+    }
+
+    private void grow() throws IOException {
+        var entries = new ArrayList<Object[]>(this.size);
+        for (int i = 0; i < this.capacity; i++) {
+            var slot = HEADER + i * SLOT;
+            if (this.index.getInt(slot + KEY_SIZE + 8) != 0) {
+                var key = new byte[KEY_SIZE];
+                this.index.get(slot, key);
+                entries.add(new Object[]{key, this.index.getLong(slot + KEY_SIZE), this.index.getInt(slot + KEY_SIZE + 8),
+                    this.index.getInt(slot + KEY_SIZE + 12)});
+            }
+        }
+        // mapped files cannot be replaced on every platform, the table is rebuilt in place
+        this.remap(this.capacity * 2);
+        for (var entry : entries) {
+            this.insert((byte[]) entry[0], (long) entry[1], (int) entry[2], (int) entry[3]);
+        }
+        this.index.putInt(8, entries.size());
+    }
+
+    private void remap(int capacity) throws IOException {
+        var length = HEADER + (long) capacity * SLOT;
+        this.index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        for (long i = HEADER; i < length; i++) {
+            this.index.put((int) i, (byte) 0);
+        }
+        this.index.putInt(0, MAGIC);
+        this.index.putInt(4, capacity);
+        this.index.putInt(8, 0);
+        this.capacity = capacity;
+    }
+
+    private static int checksum(byte[] bytes) {
+        var crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,33 @@
+package io.izzel.arclight.mixin.callback;
+
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * {@link CallbackInfoReturnable} holding an unboxed {@code boolean}.
+ * <p>
+ * Handlers of {@code boolean} returning targets may declare this type instead of {@code CallbackInfoReturnable<Boolean>}
+ * and call {@link #setReturnValueZ} to avoid boxing entirely.
+ */
+public class BooleanCallbackInfo extends PrimitiveCallbackInfo<Boolean> {
+
+    private boolean returnValue;
+
+    public BooleanCallbackInfo(String name, boolean cancellable) {
+        super(name, cancellable);
+    }
+
+    public void setReturnValueZ(boolean returnValue) {
+        this.setPrimitive();
+        this.returnValue = returnValue;
+    }
+
+    @Override
+    protected Boolean box() {
+        return this.returnValue;
+    }
+
+    @Override
+    public boolean getReturnValueZ() {
+        return this.isPrimitive() ? this.returnValue : super.getReturnValueZ();
+    }
+}
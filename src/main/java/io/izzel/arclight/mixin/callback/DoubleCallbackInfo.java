@@ -0,0 +1,33 @@
+package io.izzel.arclight.mixin.callback;
+
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * {@link CallbackInfoReturnable} holding an unboxed {@code double}.
+ * <p>
+ * Handlers of {@code double} returning targets may declare this type instead of {@code CallbackInfoReturnable<Double>}
+ * and call {@link #setReturnValueD} to avoid boxing entirely.
+ */
+public class DoubleCallbackInfo extends PrimitiveCallbackInfo<Double> {
+
+    private double returnValue;
+
+    public DoubleCallbackInfo(String name, boolean cancellable) {
+        super(name, cancellable);
+    }
+
+    public void setReturnValueD(double returnValue) {
+        this.setPrimitive();
+        this.returnValue = returnValue;
+    }
+
+    @Override
+    protected Double box() {
+        return this.returnValue;
+    }
+
+    @Override
+    public double getReturnValueD() {
+        return this.isPrimitive() ? this.returnValue : super.getReturnValueD();
+    }
+}
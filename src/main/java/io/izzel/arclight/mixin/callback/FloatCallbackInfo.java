@@ -0,0 +1,33 @@
+package io.izzel.arclight.mixin.callback;
+
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * {@link CallbackInfoReturnable} holding an unboxed {@code float}.
+ * <p>
+ * Handlers of {@code float} returning targets may declare this type instead of {@code CallbackInfoReturnable<Float>}
+ * and call {@link #setReturnValueF} to avoid boxing entirely.
+ */
+public class FloatCallbackInfo extends PrimitiveCallbackInfo<Float> {
+
+    private float returnValue;
+
+    public FloatCallbackInfo(String name, boolean cancellable) {
+        super(name, cancellable);
+    }
+
+    public void setReturnValueF(float returnValue) {
+        this.setPrimitive();
+        this.returnValue = returnValue;
+    }
+
+    @Override
+    protected Float box() {
+        return this.returnValue;
+    }
+
+    @Override
+    public float getReturnValueF() {
+        return this.isPrimitive() ? this.returnValue : super.getReturnValueF();
+    }
+}
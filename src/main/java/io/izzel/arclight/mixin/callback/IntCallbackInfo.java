@@ -0,0 +1,33 @@
+package io.izzel.arclight.mixin.callback;
+
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * {@link CallbackInfoReturnable} holding an unboxed {@code int}.
+ * <p>
+ * Handlers of {@code int} returning targets may declare this type instead of {@code CallbackInfoReturnable<Integer>}
+ * and call {@link #setReturnValueI} to avoid boxing entirely.
+ */
+public class IntCallbackInfo extends PrimitiveCallbackInfo<Integer> {
+
+    private int returnValue;
+
+    public IntCallbackInfo(String name, boolean cancellable) {
+        super(name, cancellable);
+    }
+
+    public void setReturnValueI(int returnValue) {
+        this.setPrimitive();
+        this.returnValue = returnValue;
+    }
+
+    @Override
+    protected Integer box() {
+        return this.returnValue;
+    }
+
+    @Override
+    public int getReturnValueI() {
+        return this.isPrimitive() ? this.returnValue : super.getReturnValueI();
+    }
+}
@@ -0,0 +1,33 @@
+package io.izzel.arclight.mixin.callback;
+
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * {@link CallbackInfoReturnable} holding an unboxed {@code long}.
+ * <p>
+ * Handlers of {@code long} returning targets may declare this type instead of {@code CallbackInfoReturnable<Long>}
+ * and call {@link #setReturnValueJ} to avoid boxing entirely.
+ */
+public class LongCallbackInfo extends PrimitiveCallbackInfo<Long> {
+
+    private long returnValue;
+
+    public LongCallbackInfo(String name, boolean cancellable) {
+        super(name, cancellable);
+    }
+
+    public void setReturnValueJ(long returnValue) {
+        this.setPrimitive();
+        this.returnValue = returnValue;
+    }
+
+    @Override
+    protected Long box() {
+        return this.returnValue;
+    }
+
+    @Override
+    public long getReturnValueJ() {
+        return this.isPrimitive() ? this.returnValue : super.getReturnValueJ();
+    }
+}
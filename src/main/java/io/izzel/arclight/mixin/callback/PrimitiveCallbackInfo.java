@@ -0,0 +1,42 @@
+package io.izzel.arclight.mixin.callback;
+
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Base of the {@link CallbackInfoReturnable} carriers holding an unboxed return value.
+ * <p>
+ * A carrier is only used by {@code @Eject} when the handler declares it. It keeps the semantics of
+ * {@link CallbackInfoReturnable}: {@link #setReturnValue} stores the boxed value including {@code null}, and
+ * {@link #getReturnValue} is {@code null} until a value is set.
+ */
+public abstract class PrimitiveCallbackInfo<R> extends CallbackInfoReturnable<R> {
+
+    // set by the unboxed setter of the subclass, the boxed value of the superclass is stale while true
+    private boolean primitive;
+
+    protected PrimitiveCallbackInfo(String name, boolean cancellable) {
+        super(name, cancellable);
+    }
+
+    protected final void setPrimitive() {
+        this.cancel();
+        this.primitive = true;
+    }
+
+    protected final boolean isPrimitive() {
+        return this.primitive;
+    }
+
+    protected abstract R box();
+
+    @Override
+    public void setReturnValue(R returnValue) {
+        super.setReturnValue(returnValue);
+        this.primitive = false;
+    }
+
+    @Override
+    public R getReturnValue() {
+        return this.primitive ? this.box() : super.getReturnValue();
+    }
+}
@@ -0,0 +1,118 @@
+package io.izzel.arclight.mixin.callback;
+
+import java.util.Arrays;
+
+/**
+ * Callback info pooled per thread, taken by {@code @Eject(reuseCallbackInfo = true)} handlers in place of
+ * {@code CallbackInfo} or {@code CallbackInfoReturnable}.
+ * <p>
+ * This is not a {@code CallbackInfo}, its state is only visible through its own methods. Generated code acquires
+ * an instance before calling the handler and releases it after reading the result, an instance is never observed
+ * by two callsites at the same time.
+ */
+public final class ReusableCallbackInfo<R> {
+
+    private static final ThreadLocal<Pool> POOL = ThreadLocal.withInitial(Pool::new);
+
+    private final Pool pool;
+    private boolean cancelled;
+    private R returnValue;
+    // set while the instance is in the free list of its pool
+    private boolean pooled;
+
+    ReusableCallbackInfo(Pool pool) {
+        this.pool = pool;
+    }
+
+    public static ReusableCallbackInfo<?> acquire() {
+        return POOL.get().acquire();
+    }
+
+    public void release() {
+        this.cancelled = false;
+        this.returnValue = null;
+        this.pool.release(this);
+    }
+
+    public boolean isCancellable() {
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public void setReturnValue(R returnValue) {
+        this.returnValue = returnValue;
+        this.cancelled = true;
+    }
+
+    public R getReturnValue() {
+        return this.returnValue;
+    }
+
+    public byte getReturnValueB() {
+        return this.returnValue == null ? 0 : (Byte) this.returnValue;
+    }
+
+    public char getReturnValueC() {
+        return this.returnValue == null ? 0 : (Character) this.returnValue;
+    }
+
+    public double getReturnValueD() {
+        return this.returnValue == null ? 0.0D : (Double) this.returnValue;
+    }
+
+    public float getReturnValueF() {
+        return this.returnValue == null ? 0.0F : (Float) this.returnValue;
+    }
+
+    public int getReturnValueI() {
+        return this.returnValue == null ? 0 : (Integer) this.returnValue;
+    }
+
+    public long getReturnValueJ() {
+        return this.returnValue == null ? 0L : (Long) this.returnValue;
+    }
+
+    public short getReturnValueS() {
+        return this.returnValue == null ? 0 : (Short) this.returnValue;
+    }
+
+    public boolean getReturnValueZ() {
+        return this.returnValue != null && (Boolean) this.returnValue;
+    }
+
+    static final class Pool {
+
+        private ReusableCallbackInfo<?>[] free = new ReusableCallbackInfo<?>[4];
+        private int size;
+
+        ReusableCallbackInfo<?> acquire() {
+            // nested ejected calls on the same thread take distinct instances
+            if (this.size == 0) {
+                return new ReusableCallbackInfo<>(this);
+            }
+            var info = this.free[--this.size];
+            this.free[this.size] = null;
+            info.pooled = false;
+            return info;
+        }
+
+        void release(ReusableCallbackInfo<?> info) {
+            // a second release would hand the instance to two callsites
+            if (info.pooled) {
+                throw new IllegalStateException("ReusableCallbackInfo released twice");
+            }
+            info.pooled = true;
+            if (this.size == this.free.length) {
+                this.free = Arrays.copyOf(this.free, this.size * 2);
+            }
+            this.free[this.size++] = info;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Basic blocks of a method with dominator, post dominator and natural loop information.
+ */
+public class ControlFlowGraph {
+
+    private final MethodNode method;
+    private final int size;
+    private final Map<AbstractInsnNode, Block> blockOf = new IdentityHashMap<>();
+    private final List<Block> blocks = new ArrayList<>();
+
+    static final class Block {
+
+        final int index;
+        final AbstractInsnNode first;
+        AbstractInsnNode last;
+        // normal control flow, exception edges are only kept for dominance
+        final List<Block> successors = new ArrayList<>(2), predecessors = new ArrayList<>(2);
+        final List<Block> handlers = new ArrayList<>(0), handlerPredecessors = new ArrayList<>(0);
+        final List<Block> jumpTargets = new ArrayList<>(1);
+        boolean jumpTarget, exit;
+        Block idom, ipdom;
+        Loop loop;
+
+        Block(int index, AbstractInsnNode first) {
+            this.index = index;
+            this.first = first;
+        }
+    }
+
+    static final class Loop {
+
+        final Block header;
+        final BitSet body = new BitSet();
+
+        Loop(Block header) {
+            this.header = header;
+        }
+    }
+
+    public ControlFlowGraph(MethodNode method) {
+        this.method = method;
+        this.size = method.instructions.size();
+        this.buildBlocks();
+        this.buildEdges();
+        this.computeDominators();
+        this.computePostDominators();
+        this.computeLoops();
+    }
+
+    public boolean isStale() {
+        return this.method.instructions.size() != this.size;
+    }
+
+    /**
+     * @return header label of the innermost loop containing {@code insn}
+     */
+    public LabelNode loopStart(AbstractInsnNode insn) {
+        var loop = this.loopOf(insn);
+        return loop == null ? null : label(loop.header);
+    }
+
+    /**
+     * @return first jump target leaving the innermost loop containing {@code insn}, exits from the header are preferred
+     */
+    public LabelNode loopEnd(AbstractInsnNode insn) {
+        var loop = this.loopOf(insn);
+        if (loop == null) {
+            return null;
+        }
+        var exit = exitOf(loop, loop.header);
+        for (var i = loop.body.nextSetBit(0); exit == null && i >= 0; i = loop.body.nextSetBit(i + 1)) {
+            exit = exitOf(loop, this.blocks.get(i));
+        }
+        return exit == null ? null : label(exit);
+    }
+
+    /**
+     * @return merge point of the nearest conditional branch that {@code insn} depends on
+     */
+    public LabelNode codeBlockEnd(AbstractInsnNode insn) {
+        var block = this.blockOf.get(insn);
+        if (block == null || block.idom == null) {
+            return null;
+        }
+        for (var dom = block.idom; dom != null; dom = dom.idom == dom ? null : dom.idom) {
+            if (dom.successors.size() < 2 || postDominates(block, dom)) {
+                continue;
+            }
+            var merge = dom.ipdom;
+            if (merge != null && merge.jumpTarget && label(merge) != null) {
+                return label(merge);
+            }
+        }
+        return null;
+    }
+
+    private Loop loopOf(AbstractInsnNode insn) {
+        var block = this.blockOf.get(insn);
+        return block == null ? null : block.loop;
+    }
+
+    private static Block exitOf(Loop loop, Block block) {
+        for (var target : block.jumpTargets) {
+            if (!loop.body.get(target.index) && label(target) != null) {
+                return target;
+            }
+        }
+        return null;
+    }
+
+    private static boolean postDominates(Block a, Block b) {
+        for (var block = b; block != null; block = block.ipdom) {
+            if (block == a) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static LabelNode label(Block block) {
+        return block.first instanceof LabelNode label ? label : null;
+    }
+
+    private void buildBlocks() {
+        Set<LabelNode> leaders = new HashSet<>();
+        for (var insn : this.method.instructions) {
+            if (insn instanceof JumpInsnNode jump) {
+                leaders.add(jump.label);
+            } else if (insn instanceof TableSwitchInsnNode ts) {
+                leaders.addAll(ts.labels);
+                leaders.add(ts.dflt);
+            } else if (insn instanceof LookupSwitchInsnNode ls) {
+                leaders.addAll(ls.labels);
+                leaders.add(ls.dflt);
+            }
+        }
+        for (TryCatchBlockNode tryCatch : this.method.tryCatchBlocks) {
+            leaders.add(tryCatch.start);
+            leaders.add(tryCatch.end);
+            leaders.add(tryCatch.handler);
+        }
+        Block current = null;
+        var split = true;
+        for (var insn : this.method.instructions) {
+            if (split || insn instanceof LabelNode label && leaders.contains(label)) {
+                current = new Block(this.blocks.size(), insn);
+                this.blocks.add(current);
+            }
+            this.blockOf.put(insn, current);
+            current.last = insn;
+            split = isTerminal(insn) || insn instanceof JumpInsnNode;
+        }
+    }
+
+    private void buildEdges() {
+        for (var block : this.blocks) {
+            var last = block.last;
+            var next = block.index + 1 < this.blocks.size() ? this.blocks.get(block.index + 1) : null;
+            if (last instanceof JumpInsnNode jump) {
+                this.addJump(block, jump.label);
+                if (jump.getOpcode() != Opcodes.GOTO && next != null) {
+                    addEdge(block, next);
+                }
+            } else if (last instanceof TableSwitchInsnNode ts) {
+                ts.labels.forEach(it -> this.addJump(block, it));
+                this.addJump(block, ts.dflt);
+            } else if (last instanceof LookupSwitchInsnNode ls) {
+                ls.labels.forEach(it -> this.addJump(block, it));
+                this.addJump(block, ls.dflt);
+            } else if (isTerminal(last)) {
+                block.exit = true;
+            } else if (next != null) {
+                addEdge(block, next);
+            }
+        }
+        for (TryCatchBlockNode tryCatch : this.method.tryCatchBlocks) {
+            var handler = this.blockOf.get(tryCatch.handler);
+            for (var insn = (AbstractInsnNode) tryCatch.start; insn != null && insn != tryCatch.end; insn = insn.getNext()) {
+                var block = this.blockOf.get(insn);
+                if (block.first == insn && !block.handlers.contains(handler)) {
+                    block.handlers.add(handler);
+                    handler.handlerPredecessors.add(block);
+                }
+            }
+        }
+    }
+
+    private void addJump(Block block, LabelNode label) {
+        var target = this.blockOf.get(label);
+        target.jumpTarget = true;
+        if (!block.jumpTargets.contains(target)) {
+            block.jumpTargets.add(target);
+        }
+        addEdge(block, target);
+    }
+
+    private static void addEdge(Block from, Block to) {
+        if (!from.successors.contains(to)) {
+            from.successors.add(to);
+            to.predecessors.add(from);
+        }
+    }
+
+    private static boolean isTerminal(AbstractInsnNode insn) {
+        var opcode = insn.getOpcode();
+        return opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN || opcode == Opcodes.ATHROW
+            || opcode == Opcodes.TABLESWITCH || opcode == Opcodes.LOOKUPSWITCH || opcode == Opcodes.RET;
+    }
+
+    private void computeDominators() {
+        var count = this.blocks.size();
+        var successors = new int[count][];
+        var predecessors = new int[count][];
+        for (var block : this.blocks) {
+            successors[block.index] = indexes(block.successors, block.handlers, null);
+            predecessors[block.index] = indexes(block.predecessors, block.handlerPredecessors, null);
+        }
+        var idom = dominators(count, 0, successors, predecessors);
+        for (var block : this.blocks) {
+            block.idom = idom[block.index] < 0 ? null : this.blocks.get(idom[block.index]);
+        }
+    }
+
+    private void computePostDominators() {
+        // reversed graph, with a virtual exit node at index count
+        var count = this.blocks.size();
+        var successors = new int[count + 1][];
+        var predecessors = new int[count + 1][];
+        var exits = new ArrayList<Block>();
+        for (var block : this.blocks) {
+            successors[block.index] = indexes(block.predecessors, List.of(), null);
+            predecessors[block.index] = indexes(block.successors, List.of(), block.exit ? count : null);
+            if (block.exit) {
+                exits.add(block);
+            }
+        }
+        successors[count] = indexes(exits, List.of(), null);
+        predecessors[count] = new int[0];
+        var ipdom = dominators(count + 1, count, successors, predecessors);
+        for (var block : this.blocks) {
+            var index = ipdom[block.index];
+            block.ipdom = index < 0 || index == count ? null : this.blocks.get(index);
+        }
+    }
+
+    private void computeLoops() {
+        var loops = new ArrayList<Loop>();
+        var byHeader = new IdentityHashMap<Block, Loop>();
+        for (var block : this.blocks) {
+            for (var successor : block.successors) {
+                if (block.idom != null && dominates(successor, block)) {
+                    var loop = byHeader.computeIfAbsent(successor, Loop::new);
+                    if (loop.body.isEmpty()) {
+                        loops.add(loop);
+                        loop.body.set(successor.index);
+                    }
+                    var stack = new ArrayList<Block>();
+                    stack.add(block);
+                    while (!stack.isEmpty()) {
+                        var next = stack.remove(stack.size() - 1);
+                        if (!loop.body.get(next.index) && next.idom != null) {
+                            loop.body.set(next.index);
+                            stack.addAll(next.predecessors);
+                            stack.addAll(next.handlerPredecessors);
+                        }
+                    }
+                }
+            }
+        }
+        loops.sort(Comparator.comparingInt(it -> it.body.cardinality()));
+        for (var loop : loops) {
+            for (var i = loop.body.nextSetBit(0); i >= 0; i = loop.body.nextSetBit(i + 1)) {
+                var block = this.blocks.get(i);
+                if (block.loop == null) {
+                    block.loop = loop;
+                }
+            }
+        }
+    }
+
+    private static boolean dominates(Block a, Block b) {
+        for (var block = b; block != null; block = block.idom == block ? null : block.idom) {
+            if (block == a) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] indexes(List<Block> first, List<Block> second, Integer extra) {
+        var result = new int[first.size() + second.size() + (extra == null ? 0 : 1)];
+        var i = 0;
+        for (var block : first) {
+            result[i++] = block.index;
+        }
+        for (var block : second) {
+            result[i++] = block.index;
+        }
+        if (extra != null) {
+            result[i] = extra;
+        }
+        return result;
+    }
+
+    // Cooper, Harvey and Kennedy, A Simple, Fast Dominance Algorithm
+    private static int[] dominators(int count, int root, int[][] successors, int[][] predecessors) {
+        var order = new int[count];
+        var postOrder = new int[count];
+        Arrays.fill(postOrder, -1);
+        var visited = new boolean[count];
+        var stack = new int[count];
+        var cursor = new int[count];
+        var depth = 0;
+        var numbered = 0;
+        stack[depth++] = root;
+        visited[root] = true;
+        while (depth > 0) {
+            var node = stack[depth - 1];
+            if (cursor[node] < successors[node].length) {
+                var next = successors[node][cursor[node]++];
+                if (!visited[next]) {
+                    visited[next] = true;
+                    stack[depth++] = next;
+                }
+            } else {
+                depth--;
+                postOrder[node] = numbered;
+                order[numbered++] = node;
+            }
+        }
+        var idom = new int[count];
+        Arrays.fill(idom, -1);
+        idom[root] = root;
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var i = numbered - 2; i >= 0; i--) {
+                var node = order[i];
+                var newIdom = -1;
+                for (var pred : predecessors[node]) {
+                    if (idom[pred] < 0) {
+                        continue;
+                    }
+                    if (newIdom < 0) {
+                        newIdom = pred;
+                    } else {
+                        var a = pred;
+                        var b = newIdom;
+                        while (a != b) {
+                            while (postOrder[a] < postOrder[b]) {
+                                a = idom[a];
+                            }
+                            while (postOrder[b] < postOrder[a]) {
+                                b = idom[b];
+                            }
+                        }
+                        newIdom = a;
+                    }
+                }
+                if (newIdom >= 0 && idom[node] != newIdom) {
+                    idom[node] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+        return idom;
+    }
+}
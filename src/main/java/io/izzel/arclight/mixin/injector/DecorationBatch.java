@@ -0,0 +1,101 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.tree.ClassNode;
+import org.spongepowered.asm.mixin.injection.struct.InjectionNodes.InjectionNode;
+import org.spongepowered.asm.mixin.injection.struct.Target;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Decorations collected while mixins apply and inlined together from {@link Decorator#postMixin}.
+ * <p>
+ * Enabled by {@code mixintools.batchDecorations}. Every decoration of a class is validated and analysed against
+ * the unmodified target, then applied in instruction order in one forward pass per target method. Instructions
+ * decorated in batch mode must not be replaced by other injectors.
+ * <p>
+ * With {@code mixintools.batchDecorations.parallel} the frames and instruction order of every target method are
+ * computed on the common fork/join pool before the edits are applied serially.
+ * <p>
+ * Plans are kept by their decorator and found through the class node being transformed. Neither is held strongly
+ * here, so a failed application leaves nothing behind and another node of the same class never sees the plans.
+ */
+final class DecorationBatch {
+
+    static final boolean ENABLED = Boolean.getBoolean("mixintools.batchDecorations");
+    static final boolean PARALLEL = Boolean.getBoolean("mixintools.batchDecorations.parallel");
+
+    private static final Map<ClassNode, List<WeakReference<Decorator>>> PENDING = new WeakHashMap<>();
+
+    private DecorationBatch() {
+    }
+
+    record Plan(Decorator decorator, Target target, InjectionNode node, Decorator.DecorationData data) {
+    }
+
+    static void add(Plan plan) {
+        var decorator = plan.decorator();
+        synchronized (PENDING) {
+            // plans of an application that failed before its flush are dropped
+            if (!decorator.pending.isEmpty() && decorator.pending.get(0).target().classNode != plan.target().classNode) {
+                decorator.pending.clear();
+            }
+            if (decorator.pending.isEmpty()) {
+                PENDING.computeIfAbsent(plan.target().classNode, k -> new ArrayList<>()).add(new WeakReference<>(decorator));
+            }
+            decorator.pending.add(plan);
+        }
+    }
+
+    static void flush(ClassNode classNode) {
+        var plans = new ArrayList<Plan>();
+        synchronized (PENDING) {
+            var decorators = PENDING.remove(classNode);
+            if (decorators == null) {
+                return;
+            }
+            // taken before anything is applied, a failing plan drops the rest of the batch
+            for (var reference : decorators) {
+                var decorator = reference.get();
+                if (decorator != null) {
+                    plans.addAll(decorator.pending);
+                    decorator.pending.clear();
+                }
+            }
+        }
+        var byTarget = new LinkedHashMap<Target, List<Plan>>();
+        for (var plan : plans) {
+            byTarget.computeIfAbsent(plan.target(), k -> new ArrayList<>()).add(plan);
+        }
+        var batches = new ArrayList<List<Plan>>(byTarget.values());
+        // analyses only touch their own target method, Mixin's own analyses stay on this thread
+        if (PARALLEL && batches.size() > 1) {
+            batches.parallelStream().forEach(DecorationBatch::prepare);
+        } else {
+            batches.forEach(DecorationBatch::prepare);
+        }
+        for (var batch : batches) {
+            for (var plan : batch) {
+                plan.decorator().apply(plan.target(), plan.node(), plan.data());
+            }
+        }
+    }
+
+    // solve frames and sort plans by position, stable for decorations on the same instruction
+    private static void prepare(List<Plan> plans) {
+        var analysis = TargetAnalysis.of(plans.get(0).target());
+        var positions = analysis.positions();
+        var keys = new IdentityHashMap<Plan, Long>();
+        for (var plan : plans) {
+            keys.put(plan, positions.position(plan.node().getCurrentTarget()));
+        }
+        plans.sort(Comparator.comparingLong(keys::get));
+        analysis.frames().adapterAt(plans.get(0).node().getCurrentTarget());
+    }
+}
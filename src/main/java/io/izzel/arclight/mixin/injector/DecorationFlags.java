@@ -0,0 +1,192 @@
+package io.izzel.arclight.mixin.injector;
+
+import io.izzel.arclight.mixin.DecorationOps;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.spongepowered.asm.mixin.injection.struct.InjectionInfo;
+import org.spongepowered.asm.mixin.injection.throwables.InvalidInjectionException;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Resolves {@link DecorationOps#flag} in handlers and removes the code disabled flags leave unreachable.
+ */
+public final class DecorationFlags {
+
+    private static final String DECORATION_OPS = Type.getInternalName(DecorationOps.class);
+    private static final String FLAG = "flag";
+    private static final String FLAG_DESC = "(Ljava/lang/String;)Z";
+
+    private static volatile Properties source;
+
+    private DecorationFlags() {
+    }
+
+    public static void setSource(Properties flags) {
+        source = flags;
+    }
+
+    public static boolean resolve(String name) {
+        var flags = source;
+        return Boolean.parseBoolean(flags == null ? System.getProperty(name) : flags.getProperty(name));
+    }
+
+    /**
+     * @return names of the flags resolved in the methods of {@code classBytes}, transform results depend on their values
+     */
+    public static Set<String> names(byte[] classBytes) {
+        var names = new TreeSet<String>();
+        var node = new ClassNode();
+        new ClassReader(classBytes).accept(node, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        for (var method : node.methods) {
+            for (var insn : method.instructions) {
+                if (isFlag(insn) && insn.getPrevious() instanceof LdcInsnNode ldc && ldc.cst instanceof String name) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static boolean isFlag(AbstractInsnNode insn) {
+        return insn instanceof MethodInsnNode mn && mn.getOpcode() == Opcodes.INVOKESTATIC
+            && mn.owner.equals(DECORATION_OPS) && mn.name.equals(FLAG) && mn.desc.equals(FLAG_DESC);
+    }
+
+    /**
+     * Replace flags in {@code method} with constants, fold branches on them and remove unreachable code,
+     * try-catch blocks and local variables.
+     *
+     * @return true if any flag was resolved
+     */
+    public static boolean prune(InjectionInfo info, MethodNode method) {
+        var insns = method.instructions;
+        var resolved = false;
+        for (var insn = insns.getFirst(); insn != null; insn = insn.getNext()) {
+            if (isFlag(insn)) {
+                var mn = (MethodInsnNode) insn;
+                if (!(mn.getPrevious() instanceof LdcInsnNode ldc) || !(ldc.cst instanceof String name)) {
+                    throw new InvalidInjectionException(info, "DecorationOps#flag name must be a constant in " + info);
+                }
+                var constant = new InsnNode(resolve(name) ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+                insns.remove(ldc);
+                insns.set(mn, constant);
+                insn = constant;
+                resolved = true;
+            }
+        }
+        if (!resolved) {
+            return false;
+        }
+        for (var insn = insns.getFirst(); insn != null; ) {
+            var next = insn.getNext();
+            var opcode = insn.getOpcode();
+            if ((opcode == Opcodes.ICONST_0 || opcode == Opcodes.ICONST_1) && next instanceof JumpInsnNode jump
+                && (jump.getOpcode() == Opcodes.IFEQ || jump.getOpcode() == Opcodes.IFNE)) {
+                var taken = (jump.getOpcode() == Opcodes.IFEQ) == (opcode == Opcodes.ICONST_0);
+                next = jump.getNext();
+                insns.remove(insn);
+                if (taken) {
+                    insns.set(jump, new JumpInsnNode(Opcodes.GOTO, jump.label));
+                } else {
+                    insns.remove(jump);
+                }
+            }
+            insn = next;
+        }
+        removeUnreachable(method);
+        return true;
+    }
+
+    private static void removeUnreachable(MethodNode method) {
+        var insns = method.instructions;
+        Set<AbstractInsnNode> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        var pending = new ArrayDeque<AbstractInsnNode>();
+        pending.add(insns.getFirst());
+        var changed = true;
+        while (changed) {
+            while (!pending.isEmpty()) {
+                var insn = pending.poll();
+                if (insn == null || !reachable.add(insn)) {
+                    continue;
+                }
+                var opcode = insn.getOpcode();
+                if (insn instanceof JumpInsnNode jump) {
+                    pending.add(jump.label);
+                } else if (insn instanceof TableSwitchInsnNode ts) {
+                    pending.addAll(ts.labels);
+                    pending.add(ts.dflt);
+                } else if (insn instanceof LookupSwitchInsnNode ls) {
+                    pending.addAll(ls.labels);
+                    pending.add(ls.dflt);
+                }
+                if (opcode != Opcodes.GOTO && opcode != Opcodes.ATHROW && opcode != Opcodes.TABLESWITCH && opcode != Opcodes.LOOKUPSWITCH
+                    && (opcode < Opcodes.IRETURN || opcode > Opcodes.RETURN)) {
+                    pending.add(insn.getNext());
+                }
+            }
+            changed = false;
+            for (var tryCatch : method.tryCatchBlocks) {
+                if (!reachable.contains(tryCatch.handler) && hasCode(tryCatch.start, tryCatch.end, reachable)) {
+                    pending.add(tryCatch.handler);
+                    changed = true;
+                }
+            }
+        }
+        for (var insn = insns.getFirst(); insn != null; ) {
+            var next = insn.getNext();
+            if (!(insn instanceof LabelNode) && !reachable.contains(insn)) {
+                insns.remove(insn);
+            }
+            insn = next;
+        }
+        for (var insn = insns.getFirst(); insn != null; ) {
+            var next = insn.getNext();
+            // goto to the next instruction, and frames directly followed by another frame
+            if (insn.getOpcode() == Opcodes.GOTO && nextCode(insn) == nextCode(((JumpInsnNode) insn).label)
+                || insn instanceof FrameNode && nextCode(insn) instanceof FrameNode) {
+                insns.remove(insn);
+            }
+            insn = next;
+        }
+        method.tryCatchBlocks.removeIf(it -> !hasCode(it.start, it.end, null));
+        if (method.localVariables != null) {
+            method.localVariables.removeIf(it -> !hasCode(it.start, it.end, null));
+        }
+    }
+
+    private static AbstractInsnNode nextCode(AbstractInsnNode insn) {
+        var next = insn.getNext();
+        while (next instanceof LabelNode || next instanceof LineNumberNode) {
+            next = next.getNext();
+        }
+        return next;
+    }
+
+    private static boolean hasCode(LabelNode start, LabelNode end, Set<AbstractInsnNode> reachable) {
+        for (var insn = start.getNext(); insn != null && insn != end; insn = insn.getNext()) {
+            if (insn.getOpcode() >= 0 && (reachable == null || reachable.contains(insn))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
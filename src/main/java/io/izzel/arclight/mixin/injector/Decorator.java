@@ -1,25 +1,23 @@
 package io.izzel.arclight.mixin.injector;
 
 import io.izzel.arclight.mixin.DecorationOps;
-import io.izzel.arclight.mixin.Local;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
-import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.LocalVariableNode;
-import org.objectweb.asm.tree.LookupSwitchInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
-import org.objectweb.asm.tree.TableSwitchInsnNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
@@ -33,19 +31,17 @@ import org.spongepowered.asm.mixin.injection.throwables.InjectionError;
 import org.spongepowered.asm.mixin.injection.throwables.InvalidInjectionException;
 import org.spongepowered.asm.mixin.transformer.meta.MixinMerged;
 import org.spongepowered.asm.util.Annotations;
-import org.spongepowered.asm.util.Locals;
 
 import java.lang.invoke.MethodHandle;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class Decorator extends Injector {
@@ -61,10 +57,27 @@ public class Decorator extends Injector {
     private static final String DECORATION_JMP_LOOP_END = "jumpToLoopEnd";
     private static final String DECORATION_JMP_BLOCK_END = "jumpToCodeBlockEnd";
     private static final String MH_INVOKE = "invoke";
-    private static final String LOCAL_DESC = Type.getDescriptor(Local.class);
+
+    private static final String OUTLINE_SUFFIX = "$outline$";
+
+    private final boolean inline;
+    // outlined handler per target class and callsite shape
+    private final Map<String, MethodNode> outlined = new ConcurrentHashMap<>();
+    private volatile DecorationTemplate template;
+    private final HandlerIndex.Handler handler;
+    private final boolean usesLocalOrdinals;
+    // batched decorations, the injector is dropped with the mixin application to its target class
+    final List<DecorationBatch.Plan> pending = new ArrayList<>();
 
     public Decorator(InjectionInfo info) {
         super(info, "@Decorate");
+        this.inline = Annotations.<Boolean>getValue(info.getAnnotationNode(), "inline") != Boolean.FALSE;
+        this.handler = info instanceof DecoratorInfo decoratorInfo ? decoratorInfo.handler() : HandlerIndex.of(this.methodNode);
+        var usesLocalOrdinals = false;
+        for (var local : this.handler.locals()) {
+            usesLocalOrdinals |= local != null && local.ordinal() != null;
+        }
+        this.usesLocalOrdinals = usesLocalOrdinals;
     }
 
     enum DecorationTarget {
@@ -78,6 +91,7 @@ public class Decorator extends Injector {
         final Type returnType;
         final Type[] handlerArgs;
 
+        final DecorationTemplate template;
         final AbstractInsnNode callsiteDecl, callsiteInvoke;
         final Map<AbstractInsnNode, MethodInsnNode> cancels, blackholes; // decl -> invoke
         final Set<AbstractInsnNode> jumpToLoopStart, jumpToLoopEnd, jumpToCodeBlockEnd;
@@ -86,37 +100,35 @@ public class Decorator extends Injector {
         final boolean hasCallsite;
 
         final Label begin = new Label(), end = new Label();
-        final LocalVariableNode[] locals;
+        final LocalsTable.Snapshot locals;
         final DecorationCodeStructure codeStructure;
 
         boolean hasEnd = false;
         int handlerLocalsStart, handlerStackStart;
         int handlerLocalsOffset;
-        List<Object> targetLocals;
+        // expanded target locals live across the handler, spilled stack elements included
+        List<Object> frameLocals;
         int[] lvtMap;
 
         InsnList beforeDecorate, afterDecorate;
 
-        DecorationData(Target target, InjectionNode injectionNode, AbstractInsnNode callsiteDecl,
-                       AbstractInsnNode callsiteInvoke, Map<AbstractInsnNode, MethodInsnNode> cancels,
-                       Map<AbstractInsnNode, MethodInsnNode> blackholes,
-                       Set<AbstractInsnNode> jumpToLoopStart, Set<AbstractInsnNode> jumpToLoopEnd, Set<AbstractInsnNode> jumpToCodeBlockEnd,
-                       boolean requireFrame, boolean inject,
-                       LocalVariableNode[] locals, DecorationCodeStructure codeStructure) {
+        DecorationData(Target target, InjectionNode injectionNode, DecorationTemplate template,
+                       LocalsTable.Snapshot locals, DecorationCodeStructure codeStructure) {
             super(target);
             this.node = injectionNode.getCurrentTarget();
-            this.callsiteDecl = callsiteDecl;
-            this.callsiteInvoke = callsiteInvoke;
-            this.cancels = cancels;
-            this.blackholes = blackholes;
-            this.jumpToLoopStart = jumpToLoopStart;
-            this.jumpToLoopEnd = jumpToLoopEnd;
-            this.jumpToCodeBlockEnd = jumpToCodeBlockEnd;
-            this.requireFrame = requireFrame;
+            this.template = template;
+            this.callsiteDecl = template.callsiteDecl;
+            this.callsiteInvoke = template.callsiteInvoke;
+            this.cancels = template.cancels;
+            this.blackholes = template.blackholes;
+            this.jumpToLoopStart = template.jumpToLoopStart;
+            this.jumpToLoopEnd = template.jumpToLoopEnd;
+            this.jumpToCodeBlockEnd = template.jumpToCodeBlockEnd;
+            this.requireFrame = template.requireFrame;
             this.locals = locals;
             this.codeStructure = codeStructure;
             var hasCallsite = true;
-            if (injectionNode.getDecoration(DecoratorInfo.DECORATOR_ORIGINAL_INJECTION_POINT) instanceof MethodHead || inject) {
+            if (injectionNode.getDecoration(DecoratorInfo.DECORATOR_ORIGINAL_INJECTION_POINT) instanceof MethodHead || template.inject) {
                 this.returnType = Type.VOID_TYPE;
                 this.handlerArgs = new Type[]{};
                 this.nodeEnd = this.node;
@@ -183,6 +195,53 @@ public class Decorator extends Injector {
         private LabelNode loopStart, loopEnd, codeBlockEnd;
     }
 
+    /**
+     * Handler instructions parsed once and shared by every injection of this decorator.
+     */
+    protected static class DecorationTemplate {
+
+        final boolean inject;
+        final AbstractInsnNode callsiteDecl;
+        final MethodInsnNode callsiteInvoke;
+        final Type[] callsiteArgs;
+        final Type callsiteReturn;
+        final Map<AbstractInsnNode, MethodInsnNode> cancels, blackholes; // decl -> invoke
+        final Map<MethodInsnNode, Type[]> cancelArgs;
+        final Set<AbstractInsnNode> jumpToLoopStart, jumpToLoopEnd, jumpToCodeBlockEnd;
+        final boolean requireFrame;
+        final AbstractInsnNode[] instructions;
+        // handler instructions before callsite decl, between decl and invoke, after invoke; markers excluded
+        final List<AbstractInsnNode[]> segments;
+
+        DecorationTemplate(boolean inject, AbstractInsnNode callsiteDecl, MethodInsnNode callsiteInvoke,
+                           Map<AbstractInsnNode, MethodInsnNode> cancels, Map<AbstractInsnNode, MethodInsnNode> blackholes,
+                           Set<AbstractInsnNode> jumpToLoopStart, Set<AbstractInsnNode> jumpToLoopEnd, Set<AbstractInsnNode> jumpToCodeBlockEnd,
+                           boolean requireFrame, AbstractInsnNode[] instructions, List<AbstractInsnNode[]> segments) {
+            this.inject = inject;
+            this.callsiteDecl = callsiteDecl;
+            this.callsiteInvoke = callsiteInvoke;
+            this.callsiteArgs = callsiteInvoke == null ? null : Type.getArgumentTypes(callsiteInvoke.desc);
+            this.callsiteReturn = callsiteInvoke == null ? null : Type.getReturnType(callsiteInvoke.desc);
+            this.cancels = Map.copyOf(cancels);
+            this.blackholes = Map.copyOf(blackholes);
+            var cancelArgs = new HashMap<MethodInsnNode, Type[]>();
+            for (var invoke : cancels.values()) {
+                cancelArgs.put(invoke, Type.getArgumentTypes(invoke.desc));
+            }
+            this.cancelArgs = Map.copyOf(cancelArgs);
+            this.jumpToLoopStart = Set.copyOf(jumpToLoopStart);
+            this.jumpToLoopEnd = Set.copyOf(jumpToLoopEnd);
+            this.jumpToCodeBlockEnd = Set.copyOf(jumpToCodeBlockEnd);
+            this.requireFrame = requireFrame;
+            this.instructions = instructions;
+            this.segments = List.copyOf(segments);
+        }
+
+        boolean usesCodeStructure() {
+            return !this.jumpToLoopStart.isEmpty() || !this.jumpToLoopEnd.isEmpty() || !this.jumpToCodeBlockEnd.isEmpty();
+        }
+    }
+
     @Override
     protected void sanityCheck(Target target, List<InjectionPoint> injectionPoints) {
         super.sanityCheck(target, injectionPoints);
@@ -198,89 +257,287 @@ public class Decorator extends Injector {
 
     @Override
     protected void preInject(Target target, InjectionNode node) {
-        node.decorate(DECORATION_LOCALS, Locals.getLocalsAt(target.classNode, target.method, node.getCurrentTarget(), Locals.Settings.DEFAULT));
-        node.decorate(DECORATION_STRUCTURE, createStructure(target, node));
+        var event = InjectorEvent.begin("preInject", this.info, this.methodNode, target);
+        if (this.usesLocalOrdinals) {
+            node.decorate(DECORATION_LOCALS, TargetAnalysis.of(target).locals().at(node.getCurrentTarget()));
+        }
+        // indexed markers avoid parsing the handler before any target is known
+        if (this.handler.markers() != null ? this.handler.usesCodeStructure() : this.template().usesCodeStructure()) {
+            node.decorate(DECORATION_STRUCTURE, createStructure(target, node));
+        }
+        event.finish(target);
     }
 
     private DecorationCodeStructure createStructure(Target target, InjectionNode node) {
         var structure = new DecorationCodeStructure();
-        var myIndex = target.method.instructions.indexOf(node.getCurrentTarget());
-        var possibleLoopStarts = new ArrayList<LabelNode>();
-        var nextReachable = new LinkedList<Map.Entry<AbstractInsnNode, Integer>>();
-        nextReachable.add(Map.entry(node.getCurrentTarget(), -1));
-        while (!nextReachable.isEmpty()) {
-            var entry = nextReachable.removeFirst();
-            var first = entry.getKey();
-            var limit = entry.getValue();
-            for (var iterator = target.method.instructions.iterator(target.method.instructions.indexOf(first));
-                 iterator.hasNext() && (limit < 0 || iterator.nextIndex() < limit); ) {
-                var insn = iterator.next();
-                if (insn instanceof JumpInsnNode jump) {
-                    if (target.method.instructions.indexOf(jump.label) < myIndex) {
-                        possibleLoopStarts.add(jump.label);
-                    } else if (target.method.instructions.indexOf(jump.label) > iterator.previousIndex()) {
-                        if (jump.getOpcode() == Opcodes.GOTO) {
-                            nextReachable.add(Map.entry(jump.label, limit));
-                            break;
-                        } else {
-                            if (target.method.instructions.indexOf(jump.label) > iterator.previousIndex()) {
-                                nextReachable.add(Map.entry(jump.label, limit));
-                                limit = target.method.instructions.indexOf(jump.label);
-                            }
-                        }
-                    }
-                }
-                if (insn.getOpcode() >= Opcodes.IRETURN && insn.getOpcode() <= Opcodes.RETURN || insn.getOpcode() == Opcodes.ATHROW) {
-                    break;
-                }
-            }
-        }
-        structure.loopStart = possibleLoopStarts.stream().max(Comparator.comparing(target.method.instructions::indexOf)).orElse(null);
-        if (structure.loopStart != null) {
-            var loopStartIndex = target.method.instructions.indexOf(structure.loopStart);
-            for (var iterator = target.method.instructions.iterator(loopStartIndex); iterator.hasNext(); ) {
-                var insn = iterator.next();
-                if (insn == node.getCurrentTarget()) {
-                    // do while loop?
-                    break;
-                }
-                if (insn.getOpcode() >= Opcodes.IRETURN && insn.getOpcode() <= Opcodes.RETURN || insn.getOpcode() == Opcodes.ATHROW) {
-                    break;
-                }
-                if (insn instanceof JumpInsnNode jump && target.method.instructions.indexOf(jump.label) > myIndex) {
-                    structure.loopEnd = jump.label;
-                    break;
-                }
-            }
-        }
-        for (var iterator = target.method.instructions.iterator(myIndex); iterator.hasPrevious(); ) {
-            var insn = iterator.previous();
-            if (insn.getOpcode() >= Opcodes.IRETURN && insn.getOpcode() <= Opcodes.RETURN || insn.getOpcode() == Opcodes.ATHROW) {
-                break;
-            }
-            if (insn instanceof JumpInsnNode jump && target.method.instructions.indexOf(jump.label) > myIndex) {
-                structure.codeBlockEnd = jump.label;
-                break;
-            }
-        }
+        var controlFlow = TargetAnalysis.of(target).controlFlow();
+        structure.loopStart = controlFlow.loopStart(node.getCurrentTarget());
+        structure.loopEnd = controlFlow.loopEnd(node.getCurrentTarget());
+        structure.codeBlockEnd = controlFlow.codeBlockEnd(node.getCurrentTarget());
         return structure;
     }
 
     @Override
     protected void inject(Target target, InjectionNode node) {
         if (node.isReplaced()) {
-            throw new UnsupportedOperationException("Indirect target failure for " + this.info);
+            throw new InvalidInjectionException(this.info, String.format("Decorator %s#%s targets an instruction in %s replaced by another injector",
+                this.info.getMixin().getClassName(), this.info.getMethodName(), target));
         }
-        this.methodNode.instructions.resetLabels();
         this.checkTargetModifiers(target, false);
+        var event = InjectorEvent.begin("createDecorationData", this.info, this.methodNode, target);
         var decorationData = createDecorationData(target, node);
+        event.finish(target);
+        if (DecorationBatch.ENABLED) {
+            DecorationBatch.add(new DecorationBatch.Plan(this, target, node, decorationData));
+        } else {
+            this.apply(target, node, decorationData);
+        }
+        this.info.addCallbackInvocation(this.methodNode);
+    }
+
+    void apply(Target target, InjectionNode node, DecorationData decorationData) {
+        if (node.isReplaced()) {
+            // only possible in batch mode, another injector ran between collecting and applying the decoration
+            throw new InvalidInjectionException(this.info, String.format("Decorator %s#%s targets an instruction in %s replaced by another injector before the batch was applied",
+                this.info.getMixin().getClassName(), this.info.getMethodName(), target));
+        }
+        if (this.shouldOutline(target, decorationData)) {
+            var event = InjectorEvent.begin("performOutline", this.info, this.methodNode, target);
+            this.performOutline(target, node, decorationData);
+            event.finish(target);
+            return;
+        }
+        var event = InjectorEvent.begin("guardInline", this.info, this.methodNode, target);
         this.guardInline(target, node, decorationData, decorationData.handlerArgs);
+        event.finish(target);
+        event = InjectorEvent.begin("prepareLvtMapping", this.info, this.methodNode, target);
         decorationData.lvtMap = this.prepareLvtMapping(target, decorationData, node.getDecoration(DECORATION_LOCALS));
+        event.finish(target);
+        event = InjectorEvent.begin("performInline", this.info, this.methodNode, target);
+        var sizeBefore = SizeBudget.POLICY == SizeBudget.Policy.IGNORE ? 0 : TargetAnalysis.of(target).codeSize();
         this.performInline(target, node, decorationData);
-        this.info.addCallbackInvocation(this.methodNode);
+        event.finish(target);
+        // handlers that cannot be outlined only warn under the OUTLINE policy
+        if (SizeBudget.POLICY != SizeBudget.Policy.IGNORE) {
+            SizeBudget.report(this.info, target, SizeBudget.exceeded(sizeBefore, TargetAnalysis.of(target).codeSize()), logger);
+        }
     }
 
-    protected DecorationData createDecorationData(Target target, InjectionNode node) {
+    private boolean shouldOutline(Target target, DecorationData decorationData) {
+        var rejected = this.outlineRejection(decorationData);
+        if (!this.inline) {
+            if (rejected != null) {
+                throw new InvalidInjectionException(this.info, "@Decorate(inline = false) " + rejected);
+            }
+            return true;
+        }
+        if (SizeBudget.POLICY != SizeBudget.Policy.OUTLINE || rejected != null) {
+            return false;
+        }
+        return SizeBudget.exceeded(target, SizeBudget.size(this.methodNode.instructions)) != null;
+    }
+
+    private String outlineRejection(DecorationData decorationData) {
+        var template = decorationData.template;
+        if (decorationData.decorationTarget == DecorationTarget.NEW || decorationData.decorationTarget == DecorationTarget.RETURN) {
+            return "cannot decorate " + decorationData.decorationTarget;
+        }
+        if (template.usesCodeStructure()) {
+            return "cannot jump into the target";
+        }
+        if (!template.cancels.isEmpty() && (!decorationData.target.returnType.equals(Type.VOID_TYPE) || !this.returnType.equals(Type.VOID_TYPE))) {
+            return "can only cancel void targets from void handlers";
+        }
+        if (template.callsiteInvoke != null && Arrays.stream(template.segments.get(1)).anyMatch(FrameNode.class::isInstance)) {
+            return "cannot branch inside callsite arguments";
+        }
+        for (int i = decorationData.handlerArgs.length; i < this.methodArgs.length; i++) {
+            var local = this.handler.locals()[i];
+            if (local != null && local.allocate() != null) {
+                return "cannot use @Local(allocate) at parameter " + i;
+            }
+        }
+        // captured arguments and locals are passed by value
+        var capturedStart = this.capturedStart(decorationData);
+        var capturedEnd = this.handler.slots()[this.methodArgs.length] + (this.isStatic ? 0 : 1);
+        for (var insn : template.instructions) {
+            int index;
+            if (insn instanceof VarInsnNode varInsn && varInsn.getOpcode() >= Opcodes.ISTORE && varInsn.getOpcode() <= Opcodes.ASTORE) {
+                index = varInsn.var;
+            } else if (insn instanceof IincInsnNode iinc) {
+                index = iinc.var;
+            } else {
+                continue;
+            }
+            if (index >= capturedStart && index < capturedEnd) {
+                return "cannot assign captured arguments or locals";
+            }
+        }
+        return null;
+    }
+
+    private int capturedStart(DecorationData decorationData) {
+        return (this.isStatic ? 0 : 1) + this.handler.slots()[decorationData.handlerArgs.length];
+    }
+
+    private void performOutline(Target target, InjectionNode node, DecorationData decorationData) {
+        var adapter = TargetAnalysis.of(target).frames().adapterAt(node.getCurrentTarget());
+        if (adapter == null) {
+            throw new InvalidInjectionException(this.info, "Injected into dead code");
+        }
+        var cancellable = !decorationData.cancels.isEmpty();
+        var key = target.classNode.name + " " + (decorationData.hasCallsite ? decorationData.node.getOpcode() + " " + callsiteKey(decorationData.node) : "");
+        var method = this.outlined.computeIfAbsent(key, k -> this.createOutlined(target, decorationData, cancellable));
+
+        // captured locals are loaded from the target, the outlined method has no other view of them
+        decorationData.handlerLocalsStart = target.method.maxLocals;
+        var lvtMap = this.prepareLvtMapping(target, decorationData, node.getDecoration(DECORATION_LOCALS));
+        var regionPrev = node.getCurrentTarget().getPrevious();
+        var regionNext = node.getCurrentTarget().getNext();
+        var regionSize = TargetAnalysis.of(target).regionSize(regionPrev, regionNext);
+        var insns = new InsnList();
+        var argMap = this.storeArgs(target, decorationData.handlerArgs, insns, 0);
+        if (!this.isStatic) {
+            insns.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        }
+        this.pushArgs(decorationData.handlerArgs, insns, argMap, 0, decorationData.handlerArgs.length);
+        for (int i = decorationData.handlerArgs.length, lvIndex = this.capturedStart(decorationData); i < this.methodArgs.length; i++) {
+            insns.add(new VarInsnNode(this.methodArgs[i].getOpcode(Opcodes.ILOAD), lvtMap[lvIndex]));
+            lvIndex += this.methodArgs[i].getSize();
+        }
+        insns.add(new MethodInsnNode(this.isStatic ? Opcodes.INVOKESTATIC : Opcodes.INVOKESPECIAL, target.classNode.name,
+            method.name, method.desc, (target.classNode.access & Opcodes.ACC_INTERFACE) != 0));
+        if (cancellable) {
+            var resume = new LabelNode();
+            var locals = adapter.getCurrent(adapter.locals);
+            var stack = adapter.getCurrent(adapter.stack);
+            stack = stack.subList(0, stack.size() - decorationData.handlerArgs.length);
+            insns.add(new JumpInsnNode(Opcodes.IFEQ, resume));
+            insns.add(new InsnNode(Opcodes.RETURN));
+            insns.add(resume);
+            insns.add(new FrameNode(FrameEncoder.absoluteFrameType(target.method), locals.size(), locals.toArray(),
+                stack.size(), stack.toArray()));
+        }
+        var extraStack = target.extendStack();
+        extraStack.add(this.methodArgs);
+        if (!this.isStatic) {
+            extraStack.add();
+        }
+        extraStack.apply();
+        if (decorationData.hasCallsite) {
+            target.replaceNode(node.getCurrentTarget(), insns);
+        } else {
+            target.insertBefore(node.getCurrentTarget(), insns);
+        }
+        InjectedRegions.mark(target, regionPrev, regionNext);
+        TargetAnalysis.of(target).updateCodeSize(regionPrev, regionNext, regionSize);
+        TargetAnalysis.of(target).frames().update(regionPrev, regionNext, decorationData.node);
+        TargetAnalysis.of(target).positions().update(regionPrev, regionNext);
+    }
+
+    private static String callsiteKey(AbstractInsnNode node) {
+        if (node instanceof MethodInsnNode mn) {
+            return mn.owner + "." + mn.name + mn.desc;
+        } else if (node instanceof FieldInsnNode fn) {
+            return fn.owner + "." + fn.name + ":" + fn.desc;
+        }
+        return String.valueOf(node);
+    }
+
+    /**
+     * Copy of the handler with the callsite replaced by the decorated instruction,
+     * a cancellable copy returns true when the target should return.
+     */
+    private MethodNode createOutlined(Target target, DecorationData decorationData, boolean cancellable) {
+        var template = decorationData.template;
+        var name = this.methodNode.name + OUTLINE_SUFFIX;
+        var names = target.classNode.methods.stream().map(it -> it.name).collect(Collectors.toSet());
+        var suffix = 0;
+        while (names.contains(name + suffix)) {
+            suffix++;
+        }
+        var desc = cancellable ? Type.getMethodDescriptor(Type.BOOLEAN_TYPE, this.methodArgs) : this.methodNode.desc;
+        var access = Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC | (this.isStatic ? Opcodes.ACC_STATIC : 0);
+        var method = new MethodNode(Opcodes.ASM9, access, name + suffix, desc, null,
+            this.methodNode.exceptions == null ? null : this.methodNode.exceptions.toArray(new String[0]));
+        var labels = new HashMap<LabelNode, LabelNode>();
+        for (var insn : template.instructions) {
+            if (insn instanceof LabelNode label) {
+                labels.put(label, new LabelNode());
+            }
+        }
+        AbstractInsnNode skipUntil = null;
+        var cancelReturn = false;
+        for (var insn : template.instructions) {
+            if (skipUntil != null || cancelReturn) {
+                if (insn == skipUntil) {
+                    skipUntil = null;
+                } else if (skipUntil == null && insn.getOpcode() >= Opcodes.IRETURN && insn.getOpcode() <= Opcodes.RETURN) {
+                    cancelReturn = false;
+                } else if (insn instanceof LabelNode || insn instanceof LineNumberNode) {
+                    method.instructions.add(insn.clone(labels));
+                } else if (skipUntil == null && (insn.getOpcode() >= 0 && insn.getOpcode() != Opcodes.CHECKCAST || insn instanceof FrameNode)) {
+                    throw new InvalidInjectionException(this.info, "Return statement must be followed after cancel()");
+                }
+                continue;
+            }
+            if (insn == template.callsiteDecl) {
+                continue;
+            }
+            if (insn == template.callsiteInvoke) {
+                method.instructions.add(decorationData.node.clone(labels));
+            } else if (template.blackholes.containsKey(insn)) {
+                skipUntil = template.blackholes.get(insn);
+            } else if (template.cancels.containsKey(insn)) {
+                skipUntil = template.cancels.get(insn);
+                cancelReturn = true;
+                method.instructions.add(new InsnNode(Opcodes.ICONST_1));
+                method.instructions.add(new InsnNode(Opcodes.IRETURN));
+            } else if (cancellable && insn.getOpcode() == Opcodes.RETURN) {
+                method.instructions.add(new InsnNode(Opcodes.ICONST_0));
+                method.instructions.add(new InsnNode(Opcodes.IRETURN));
+            } else {
+                method.instructions.add(insn.clone(labels));
+            }
+        }
+        for (var tryCatch : this.methodNode.tryCatchBlocks) {
+            method.tryCatchBlocks.add(new TryCatchBlockNode(labels.get(tryCatch.start), labels.get(tryCatch.end),
+                labels.get(tryCatch.handler), tryCatch.type));
+        }
+        if (this.methodNode.localVariables != null) {
+            method.localVariables = new ArrayList<>();
+            for (var lvn : this.methodNode.localVariables) {
+                method.localVariables.add(new LocalVariableNode(lvn.name, lvn.desc, lvn.signature,
+                    labels.get(lvn.start), labels.get(lvn.end), lvn.index));
+            }
+        }
+        method.maxLocals = this.methodNode.maxLocals;
+        method.maxStack = this.methodNode.maxStack + 1;
+        target.classNode.methods.add(method);
+        return method;
+    }
+
+    /**
+     * The handler is not modified after its template is created, injections into other targets may read it concurrently.
+     */
+    protected DecorationTemplate template() {
+        var template = this.template;
+        if (template == null) {
+            synchronized (this) {
+                template = this.template;
+                if (template == null) {
+                    // flags are fixed once mixins apply, prune the handler before any copy is made
+                    DecorationFlags.prune(this.info, this.methodNode);
+                    template = this.createTemplate();
+                    this.template = template;
+                }
+            }
+        }
+        return template;
+    }
+
+    protected DecorationTemplate createTemplate() {
+        var inject = Annotations.<Boolean>getValue(this.info.getAnnotationNode(), "inject") == Boolean.TRUE;
         AbstractInsnNode callsiteDecl = null;
         MethodInsnNode callsiteInvoke = null;
         Map<AbstractInsnNode, MethodInsnNode> cancels = new HashMap<>(), blackholes = new HashMap<>();
@@ -291,6 +548,8 @@ public class Decorator extends Injector {
         LastDecl lastDecl = null;
         AbstractInsnNode lastDeclInsn = null;
         boolean requireFrame = false;
+        var segments = new ArrayList<AbstractInsnNode[]>();
+        var segment = new ArrayList<AbstractInsnNode>();
         for (var insn : this.methodNode.instructions) {
             if (insn.getOpcode() == Opcodes.INVOKESTATIC && insn instanceof MethodInsnNode mn) {
                 if (mn.owner.equals(DECORATION_TYPE.getInternalName())) {
@@ -310,6 +569,9 @@ public class Decorator extends Injector {
                             }
                             callsiteDecl = mn;
                             lastDecl = LastDecl.CALLSITE;
+                            segments.add(segment.toArray(new AbstractInsnNode[0]));
+                            segment.clear();
+                            continue;
                         }
                         case DECORATION_CANCEL -> lastDecl = LastDecl.CANCEL;
                         case DECORATION_BLACKHOLE -> lastDecl = LastDecl.BLACKHOLE;
@@ -331,7 +593,14 @@ public class Decorator extends Injector {
                 if (mn.owner.equals(MH_TYPE.getInternalName()) && mn.name.equals(MH_INVOKE)) {
                     if (lastDecl != null) {
                         switch (lastDecl) {
-                            case CALLSITE -> callsiteInvoke = mn;
+                            case CALLSITE -> {
+                                callsiteInvoke = mn;
+                                segments.add(segment.toArray(new AbstractInsnNode[0]));
+                                segment.clear();
+                                lastDecl = null;
+                                lastDeclInsn = null;
+                                continue;
+                            }
                             case CANCEL -> cancels.put(lastDeclInsn, mn);
                             case BLACKHOLE -> blackholes.put(lastDeclInsn, mn);
                         }
@@ -352,8 +621,8 @@ public class Decorator extends Injector {
                     lastDeclInsn = null;
                 }
             }
+            segment.add(insn);
         }
-        var inject = Annotations.<Boolean>getValue(this.info.getAnnotationNode(), "inject") == Boolean.TRUE;
         if (!inject && (callsiteDecl == null || callsiteInvoke == null)) {
             throw new InvalidInjectionException(this.info, "No callsite found in @Decorate");
         } else if (inject && (callsiteDecl != null || callsiteInvoke != null)) {
@@ -363,17 +632,6 @@ public class Decorator extends Injector {
             throw new InvalidInjectionException(this.info,
                 "Open DecorationOps in @Decorate: " + lastDecl + " at bci " + this.methodNode.instructions.indexOf(callsiteDecl));
         }
-        for (var invoke : cancels.values()) {
-            var methodType = Type.getMethodType(invoke.desc);
-            var argumentTypes = methodType.getArgumentTypes();
-            if ((target.returnType.equals(Type.VOID_TYPE) && argumentTypes.length != 0) ||
-                (!target.returnType.equals(Type.VOID_TYPE) && (argumentTypes.length != 1 || !argumentTypes[0].equals(target.returnType)))) {
-                throw new InvalidInjectionException(this.info,
-                    "Invalid DecorationOps.cancel argument types at bci "
-                        + this.methodNode.instructions.indexOf(invoke) + ": expect " + target.returnType.getDescriptor()
-                        + ", found " + (argumentTypes.length > 0 ? argumentTypes[0].getDescriptor() : "nothing"));
-            }
-        }
         for (var invoke : blackholes.values()) {
             var methodType = Type.getMethodType(invoke.desc);
             if (!methodType.getReturnType().equals(Type.VOID_TYPE)) {
@@ -382,101 +640,72 @@ public class Decorator extends Injector {
                         + this.methodNode.instructions.indexOf(invoke));
             }
         }
-        var codeStructure = node.<DecorationCodeStructure>getDecoration(DECORATION_STRUCTURE);
-        if (!jumpToLoopStart.isEmpty() && codeStructure.loopStart == null) {
+        segments.add(segment.toArray(new AbstractInsnNode[0]));
+        // labels are created lazily, create them once so they stay stable while shared
+        for (var insn : this.methodNode.instructions) {
+            if (insn instanceof LabelNode label) {
+                label.getLabel();
+            }
+        }
+        return new DecorationTemplate(inject, callsiteDecl, callsiteInvoke, cancels, blackholes,
+            jumpToLoopStart, jumpToLoopEnd, jumpToCodeBlockEnd, requireFrame, this.methodNode.instructions.toArray(), segments);
+    }
+
+    protected DecorationData createDecorationData(Target target, InjectionNode node) {
+        var template = this.template();
+        for (var entry : template.cancelArgs.entrySet()) {
+            var argumentTypes = entry.getValue();
+            if ((target.returnType.equals(Type.VOID_TYPE) && argumentTypes.length != 0) ||
+                (!target.returnType.equals(Type.VOID_TYPE) && (argumentTypes.length != 1 || !argumentTypes[0].equals(target.returnType)))) {
+                throw new InvalidInjectionException(this.info,
+                    "Invalid DecorationOps.cancel argument types at bci "
+                        + this.methodNode.instructions.indexOf(entry.getKey()) + ": expect " + target.returnType.getDescriptor()
+                        + ", found " + (argumentTypes.length > 0 ? argumentTypes[0].getDescriptor() : "nothing"));
+            }
+        }
+        var codeStructure = node.hasDecoration(DECORATION_STRUCTURE)
+            ? node.<DecorationCodeStructure>getDecoration(DECORATION_STRUCTURE) : new DecorationCodeStructure();
+        if (!template.jumpToLoopStart.isEmpty() && codeStructure.loopStart == null) {
             throw new InvalidInjectionException(this.info, "Failed to locate loopStart");
         }
-        if (!jumpToLoopEnd.isEmpty() && codeStructure.loopEnd == null) {
+        if (!template.jumpToLoopEnd.isEmpty() && codeStructure.loopEnd == null) {
             throw new InvalidInjectionException(this.info, "Failed to locate loopEnd");
         }
-        if (!jumpToCodeBlockEnd.isEmpty() && codeStructure.codeBlockEnd == null) {
+        if (!template.jumpToCodeBlockEnd.isEmpty() && codeStructure.codeBlockEnd == null) {
             throw new InvalidInjectionException(this.info, "Failed to locate codeBlockEnd");
         }
-        var data = new DecorationData(target, node, callsiteDecl, callsiteInvoke, cancels, blackholes,
-            jumpToLoopStart, jumpToLoopEnd, jumpToCodeBlockEnd,
-            requireFrame, inject, node.getDecoration(DECORATION_LOCALS), codeStructure);
-        if (!data.returnType.equals(Type.getReturnType(this.methodNode.desc))) {
+        var data = new DecorationData(target, node, template, node.getDecoration(DECORATION_LOCALS), codeStructure);
+        if (!data.returnType.equals(this.returnType)) {
             throw new InvalidInjectionException(this.info, "Return type mismatch: expect " + data.returnType
-                + ", found " + Type.getReturnType(this.methodNode.desc));
+                + ", found " + this.returnType);
         }
-        if (callsiteInvoke != null) {
-            var methodType = Type.getMethodType(callsiteInvoke.desc);
-            if (!Arrays.equals(methodType.getArgumentTypes(), data.handlerArgs)) {
+        if (template.callsiteInvoke != null) {
+            if (!Arrays.equals(template.callsiteArgs, data.handlerArgs)) {
                 throw new InvalidInjectionException(this.info, "DecorationOps.callsite method type and target method type mismatch");
             }
-            var returnType = Type.getReturnType(callsiteInvoke.desc);
-            if (!data.returnType.equals(returnType)) {
+            if (!data.returnType.equals(template.callsiteReturn)) {
                 throw new InvalidInjectionException(this.info, "DecorationOps.callsite return type and target return type mismatch");
             }
         }
-        var argTypes = Type.getArgumentTypes(this.methodNode.desc);
         var handlerArgs = data.handlerArgs;
         for (var i = 0; i < handlerArgs.length; i++) {
             var handlerArg = handlerArgs[i];
-            if (!argTypes[i].equals(handlerArg)) {
+            if (!this.methodArgs[i].equals(handlerArg)) {
                 throw new InvalidInjectionException(this.info,
-                    "Callback argument type mismatch at " + i + ": expect " + handlerArg + ", found " + argTypes[i]);
+                    "Callback argument type mismatch at " + i + ": expect " + handlerArg + ", found " + this.methodArgs[i]);
             }
         }
         return data;
     }
 
-    private EnhancedAnalyzerAdapter localsAndStackAt(Target target, AbstractInsnNode endInsn) {
-        // target label -> jump insn list
-        var topo = new HashMap<AbstractInsnNode, List<AbstractInsnNode>>();
-        var adapter = new EnhancedAnalyzerAdapter(target.classNode.name, target.method.access, target.method.name,
-            target.method.desc, null);
-        for (int i = target.insns.indexOf(endInsn), j = 0; j < i; j++) {
-            var insnNode = target.insns.get(j);
-            insnNode.accept(adapter);
-            if (insnNode instanceof JumpInsnNode jump) {
-                topo.computeIfAbsent(jump.label, k -> new ArrayList<>()).add(insnNode);
-            } else if (insnNode instanceof TableSwitchInsnNode ts) {
-                for (var label : ts.labels) {
-                    topo.computeIfAbsent(label, k -> new ArrayList<>()).add(insnNode);
-                }
-                topo.computeIfAbsent(ts.dflt, k -> new ArrayList<>()).add(insnNode);
-            } else if (insnNode instanceof LookupSwitchInsnNode ls) {
-                for (var label : ls.labels) {
-                    topo.computeIfAbsent(label, k -> new ArrayList<>()).add(insnNode);
-                }
-                topo.computeIfAbsent(ls.dflt, k -> new ArrayList<>()).add(insnNode);
-            }
-        }
-        if (adapter.locals != null) {
-            return adapter;
-        }
-        // other transformers inserted control flow end
-        for (int i = target.insns.indexOf(endInsn), j = i - 1; j >= 0; j--) {
-            var insn = target.insns.get(j);
-            if (topo.containsKey(insn)) {
-                for (var jump : topo.get(insn)) {
-                    var src = localsAndStackAt(target, jump);
-                    jump.accept(src);
-                    if (src.locals == null) {
-                        continue;
-                    }
-                    for (int k = target.insns.indexOf(endInsn), l = target.insns.indexOf(insn); l < k; l++) {
-                        var insnNode = target.insns.get(l);
-                        insnNode.accept(src);
-                    }
-                    if (src.locals != null) {
-                        return src;
-                    }
-                }
-            } else if (insn.getOpcode() >= Opcodes.IRETURN && insn.getOpcode() <= Opcodes.RETURN || insn.getOpcode() == Opcodes.ATHROW || insn.getOpcode() == Opcodes.GOTO) {
-                throw new InvalidInjectionException(this.info, "Injected into dead code");
-            }
-        }
-        throw new InvalidInjectionException(this.info, "Injected into dead code?");
-    }
-
     private void guardInline(Target target, InjectionNode node, DecorationData decorationData,
                              Type[] handlerTypes) {
-        var adapter = localsAndStackAt(target, node.getCurrentTarget());
+        var adapter = TargetAnalysis.of(target).frames().adapterAt(node.getCurrentTarget());
+        if (adapter == null) {
+            throw new InvalidInjectionException(this.info, "Injected into dead code");
+        }
         var currentLocal = adapter.getCurrent(adapter.locals);
         var currentStack = adapter.getCurrent(adapter.stack);
-        decorationData.targetLocals = currentLocal;
         if (decorationData.decorationTarget == DecorationTarget.NEW) {
             currentStack = new ArrayList<>(currentStack);
             currentStack.addAll(Arrays.stream(handlerTypes).map(EnhancedAnalyzerAdapter::getFrameItem).toList());
@@ -500,7 +729,7 @@ public class Decorator extends Injector {
         // 1. store handler args
         int unusedStackElmSize = currentStack.subList(handlerTypes.length, currentStack.size()).stream()
             .mapToInt(it -> (it == Opcodes.LONG || it == Opcodes.DOUBLE) ? 2 : 1).sum();
-        int handlersLocalBase = Math.max(adapter.locals.size(), target.method.maxLocals);
+        int handlersLocalBase = handlerLocalsBase(adapter, target.method);
         int handlerStartIndex = handlersLocalBase + unusedStackElmSize;
         decorationData.handlerLocalsStart = handlerStartIndex;
         decorationData.handlerStackStart = adapter.stack.size();
@@ -509,13 +738,19 @@ public class Decorator extends Injector {
             lvIndex += handlerTypes[i].getSize();
         }
         // 2. store unused stack elements, likely 0
+        var frameLocals = new ArrayList<>(adapter.locals);
+        while (frameLocals.size() < handlersLocalBase) {
+            frameLocals.add(Opcodes.TOP);
+        }
         for (int i = currentStack.size() - handlerTypes.length - 1, lvIndex = handlersLocalBase; i >= 0; i--) {
             beforeDecorate.add(
                 new VarInsnNode(EnhancedAnalyzerAdapter.getOpcode(Opcodes.ISTORE, currentStack.get(i)), lvIndex));
             afterDecorate.insert(
                 new VarInsnNode(EnhancedAnalyzerAdapter.getOpcode(Opcodes.ILOAD, currentStack.get(i)), lvIndex));
             lvIndex += (currentStack.get(i) == Opcodes.LONG || currentStack.get(i) == Opcodes.DOUBLE) ? 2 : 1;
+            frameLocals.addAll(HandlerCopier.expand(List.of(currentStack.get(i))));
         }
+        decorationData.frameLocals = frameLocals;
         if (!decorationData.requireFrame && (afterDecorate.size() == 0 || !decorationData.hasCallsite)) {
             return;
         }
@@ -529,14 +764,14 @@ public class Decorator extends Injector {
         System.arraycopy(callbackLocals, 0, mergedLocals, currentLocal.size() + currentStack.size(),
             callbackLocals.length);
         beforeDecorate.add(new LabelNode(decorationData.begin));
-        beforeDecorate.add(new FrameNode(Opcodes.F_FULL, mergedLocals.length, mergedLocals, 0, null));
+        var frameType = FrameEncoder.absoluteFrameType(target.method);
+        beforeDecorate.add(new FrameNode(frameType, mergedLocals.length, mergedLocals, 0, null));
         // 4. rebuild stack after inline invoke if necessary
         //
         // write the return value of callback at handlerStartIndex,
         // load the previous stack stored at step 2,
         // and load the return value
-        for (var iterator = target.insns.iterator(target.insns.indexOf(node.getCurrentTarget())); iterator.hasNext(); ) {
-            var insn = iterator.next();
+        for (var insn = node.getCurrentTarget(); insn != null; insn = insn.getNext()) {
             insn.accept(adapter);
             if (insn == decorationData.nodeEnd) {
                 break;
@@ -558,7 +793,7 @@ public class Decorator extends Injector {
                             .getFrameItem(Type.getReturnType(this.methodNode.desc));
                         afterDecorate.insert(new VarInsnNode(Type.getReturnType(this.methodNode.desc).getOpcode(Opcodes.ISTORE), handlerStartIndex));
                     }
-                    afterDecorate.insert(new FrameNode(Opcodes.F_FULL, afterWithUnused.length, afterWithUnused,
+                    afterDecorate.insert(new FrameNode(frameType, afterWithUnused.length, afterWithUnused,
                         callbackHasReturn ? 1 : 0,
                         callbackHasReturn ? new Object[]{afterWithUnused[afterWithUnused.length - 1]} : null));
                     // rebuild stack end
@@ -568,33 +803,32 @@ public class Decorator extends Injector {
                     }
                 }
                 // 5. insert additional frame node at end
-                afterDecorate.add(new FrameNode(Opcodes.F_FULL, afterLocal.size(), afterLocal.toArray(),
+                afterDecorate.add(new FrameNode(frameType, afterLocal.size(), afterLocal.toArray(),
                     afterStack.size(), afterStack.toArray()));
             }
         } else {
-            afterDecorate.add(new FrameNode(Opcodes.F_FULL, currentLocal.size(), currentLocal.toArray(),
+            afterDecorate.add(new FrameNode(frameType, currentLocal.size(), currentLocal.toArray(),
                 currentStack.size(), currentStack.toArray()));
         }
-        // 6. rewrite next frame node if it's not a full frame
-        for (var iterator = target.insns.iterator(target.insns.indexOf(decorationData.nodeEnd) + 1); iterator.hasNext(); ) {
+        // 6. rewrite next frame node if it's relative to the previous frame
+        for (var insn = decorationData.nodeEnd.getNext(); insn != null; insn = insn.getNext()) {
             if (adapter.locals == null || adapter.stack == null) {
                 break;
             }
-            var insn = iterator.next();
             insn.accept(adapter);
             if (insn instanceof FrameNode fn) {
-                if (fn.type != Opcodes.F_FULL) {
-                    var locals = adapter.getCurrent(adapter.locals);
-                    var stack = adapter.getCurrent(adapter.stack);
-                    iterator.set(new FrameNode(Opcodes.F_FULL, locals.size(), locals.toArray(),
-                        stack.size(), stack.toArray()));
+                if (fn.type != Opcodes.F_FULL && fn.type != Opcodes.F_NEW) {
+                    // rewrite in place, cached frames are keyed by node
+                    fn.type = frameType;
+                    fn.local = adapter.getCurrent(adapter.locals);
+                    fn.stack = adapter.getCurrent(adapter.stack);
                 }
                 break;
             }
         }
     }
 
-    private int[] prepareLvtMapping(Target target, DecorationData decorationData, LocalVariableNode[] lvns) {
+    private int[] prepareLvtMapping(Target target, DecorationData decorationData, LocalsTable.Snapshot lvns) {
         var lvtMap = new int[this.methodNode.maxLocals];
         Arrays.fill(lvtMap, -1);
         var lvIndex = 0;
@@ -613,10 +847,7 @@ public class Decorator extends Injector {
         }
         var localsStart = targetArgsStart;
         for (int i = localsStart; i < targetArgsStart + target.arguments.length; i++) {
-            if (this.methodNode.invisibleAnnotableParameterCount > i &&
-                this.methodNode.invisibleParameterAnnotations[i] != null &&
-                this.methodNode.invisibleParameterAnnotations[i].stream()
-                    .filter(it -> it.desc.equals(LOCAL_DESC)).findAny().orElse(null) != null) {
+            if (this.handler.locals()[i] != null) {
                 break;
             }
             localsStart++;
@@ -676,27 +907,24 @@ public class Decorator extends Injector {
         }
     }
 
-    private int findLv(Target target, DecorationData decorationData, int i, LocalVariableNode[] locals) {
+    private int findLv(Target target, DecorationData decorationData, int i, LocalsTable.Snapshot locals) {
         var type = this.methodArgs[i];
-        AnnotationNode localNode;
-        if (this.methodNode.invisibleAnnotableParameterCount > i &&
-            this.methodNode.invisibleParameterAnnotations[i] != null &&
-            (localNode = this.methodNode.invisibleParameterAnnotations[i].stream()
-                .filter(it -> it.desc.equals(LOCAL_DESC)).findAny().orElse(null)) != null) {
-            var index = Annotations.<Integer>getValue(localNode, "ordinal");
-            var allocate = Annotations.<String>getValue(localNode, "allocate");
+        var local = this.handler.locals()[i];
+        if (local != null) {
+            var index = local.ordinal();
+            var allocate = local.allocate();
             if (index != null && allocate != null) {
                 throw new InvalidInjectionException(this.info, "Only one of 'ordinal' and 'allocate' can exist on @Local at parameter " + i);
             }
             if (index != null) {
-                var lvns = Arrays.stream(locals).filter(it -> it != null && Type.getType(it.desc).equals(type)).toList();
+                var lvns = locals.ofType(type.getDescriptor());
                 if (index < 0) {
                     index = lvns.size() + index;
                 }
                 if (index >= 0 && index < lvns.size()) {
                     return lvns.get(index).index;
                 } else {
-                    throw new InvalidInjectionException(this.info, "Cannot find @Local(ordinal=" + Annotations.<Integer>getValue(localNode, "ordinal") + ") "
+                    throw new InvalidInjectionException(this.info, "Cannot find @Local(ordinal=" + local.ordinal() + ") "
                         + type.getClassName() + " " + this.methodNode.parameters.get(i).name + " at " + i + "\n"
                         + "Available locals:\n"
                         + lvns.stream().map(it -> "Index: " + it.index + " Type " + it.desc + " Name " + it.name).collect(Collectors.joining("\n")));
@@ -726,25 +954,18 @@ public class Decorator extends Injector {
     }
 
     private void performInline(Target target, InjectionNode node, DecorationData decorationData) {
-        var collector = new CollectingVisitor(Opcodes.ASM9, target, decorationData);
-        for (var lvn : this.methodNode.localVariables) {
-            lvn.accept(collector);
-        }
-        for (var tryCatch : this.methodNode.tryCatchBlocks) {
-            tryCatch.accept(collector);
-        }
+        var collector = new CollectingVisitor(target, decorationData);
+        var regionPrev = decorationData.node.getPrevious();
+        var regionNext = decorationData.nodeEnd.getNext();
+        var regionSize = TargetAnalysis.of(target).regionSize(regionPrev, regionNext);
+        collector.copyMetadata();
         switch (decorationData.decorationTarget) {
             case INVOKE, FIELD, RETURN -> {
-                for (var insn : this.methodNode.instructions) {
-                    if (insn == decorationData.callsiteDecl) {
-                        continue;
-                    }
-                    if (insn == decorationData.callsiteInvoke) {
-                        collector.step();
-                    } else {
-                        collector.next(insn);
-                    }
-                }
+                var segments = decorationData.template.segments;
+                collector.next(segments.get(0));
+                collector.next(segments.get(1));
+                collector.step();
+                collector.next(segments.get(2));
                 collector.visitEnd();
                 target.insns.insertBefore(node.getCurrentTarget(), decorationData.beforeDecorate);
                 target.insns.insertBefore(node.getCurrentTarget(), collector.blocks.get(0).instructions);
@@ -752,28 +973,23 @@ public class Decorator extends Injector {
                 target.insns.insert(decorationData.nodeEnd, collector.blocks.get(1).instructions);
             }
             case NEW -> {
-                for (var insn : this.methodNode.instructions) {
-                    if (insn == decorationData.callsiteDecl) {
-                        collector.step();
-                    } else if (insn == decorationData.callsiteInvoke) {
-                        collector.step();
-                    } else {
-                        collector.next(insn);
-                    }
-                }
+                var segments = decorationData.template.segments;
+                collector.next(segments.get(0));
+                collector.step();
+                collector.next(segments.get(1));
+                collector.step();
+                collector.next(segments.get(2));
                 collector.visitEnd();
                 var initInsns = new InsnList();
                 var startNode = decorationData.node.getNext();
                 if (startNode.getOpcode() == Opcodes.DUP) {
                     startNode = startNode.getNext();
                 }
-                for (var iterator = target.insns.iterator(target.insns.indexOf(startNode)); iterator.hasNext(); ) {
-                    var insn = iterator.next();
-                    if (insn == decorationData.nodeEnd) {
-                        break;
-                    }
-                    iterator.remove();
+                for (var insn = startNode; insn != decorationData.nodeEnd; ) {
+                    var next = insn.getNext();
+                    target.insns.remove(insn);
                     initInsns.add(insn);
+                    insn = next;
                 }
                 // @formatter:off
                 // original:                                      | callback:                                   
@@ -803,9 +1019,7 @@ public class Decorator extends Injector {
                 target.insns.insert(decorationData.nodeEnd, collector.blocks.get(2).instructions); // f
             }
             case INJECTION -> {
-                for (var insn : this.methodNode.instructions) {
-                    collector.next(insn);
-                }
+                collector.next(decorationData.template.instructions);
                 collector.visitEnd();
                 target.insns.insertBefore(node.getCurrentTarget(), decorationData.beforeDecorate);
                 target.insns.insertBefore(node.getCurrentTarget(), collector.blocks.get(0).instructions);
@@ -814,34 +1028,29 @@ public class Decorator extends Injector {
             default ->
                 throw new InvalidInjectionException(this.info, "Unknown decoration target: " + decorationData.decorationTarget);
         }
-        var tcns = collector.blocks.get(0).tryCatchBlocks;
-        if (tcns != null) {
-            target.method.tryCatchBlocks.addAll(this.findTryCatchIndex(target.method, tcns), tcns);
-        }
-        var lvns = collector.blocks.get(0).localVariables;
-        if (lvns != null) {
-            target.method.localVariables.addAll(lvns.stream().filter(it -> it.index >= decorationData.handlerLocalsStart).toList());
-        }
+        InjectedRegions.mark(target, regionPrev, regionNext);
+        TargetAnalysis.of(target).updateCodeSize(regionPrev, regionNext, regionSize);
+        TargetAnalysis.of(target).frames().update(regionPrev, regionNext, decorationData.node);
+        TargetAnalysis.of(target).positions().update(regionPrev, regionNext);
+        collector.finish(target);
         target.method.maxLocals = Math.max(target.method.maxLocals,
             this.methodNode.maxLocals - decorationData.handlerLocalsOffset + decorationData.handlerLocalsStart);
         target.method.maxStack = Math.max(target.method.maxStack,
             this.methodNode.maxStack + decorationData.handlerStackStart);
     }
 
-    private int findTryCatchIndex(MethodNode target, List<TryCatchBlockNode> tcns) {
-        var labelIndexes = new HashMap<AbstractInsnNode, Integer>();
-        for (var node : target.instructions) {
-            if (node.getType() == LabelNode.LABEL) {
-                labelIndexes.put(node, target.instructions.indexOf(node));
+    /**
+     * @return first slot free for handler locals at the point of {@code adapter}, shared by decorations and inlined ejections
+     */
+    static int handlerLocalsBase(EnhancedAnalyzerAdapter adapter, MethodNode method) {
+        // slots above the frame are dead here, only slots shared by @Local(allocate) outlive a decoration
+        var reserved = adapter.locals.size();
+        for (var lvn : method.localVariables) {
+            if (lvn instanceof AllocatedLocalVariableNode) {
+                reserved = Math.max(reserved, lvn.index + Type.getType(lvn.desc).getSize());
             }
         }
-        for (var i = target.tryCatchBlocks.size() - 1; i >= 0; i--) {
-            var tcn = target.tryCatchBlocks.get(i);
-            if (tcns.stream().anyMatch(it -> labelIndexes.get(it.start) <= labelIndexes.get(tcn.start) && labelIndexes.get(it.end) >= labelIndexes.get(tcn.end))) {
-                return i + 1;
-            }
-        }
-        return 0;
+        return reserved;
     }
 
     private static class AllocatedLocalVariableNode extends LocalVariableNode {
@@ -858,18 +1067,16 @@ public class Decorator extends Injector {
         }
     }
 
-    protected class CollectingVisitor extends MethodVisitor {
+    protected class CollectingVisitor extends HandlerCopier {
 
         private final Target target;
         private final DecorationData decorationData;
 
-        final List<MethodNode> blocks = new ArrayList<>();
-
-        protected CollectingVisitor(int api, Target target, DecorationData decorationData) {
-            super(api, null);
+        protected CollectingVisitor(Target target, DecorationData decorationData) {
+            super(info, classNode.name, target.method, methodNode, decorationData.lvtMap, decorationData.handlerLocalsStart,
+                decorationData.frameLocals, List.of());
             this.target = target;
             this.decorationData = decorationData;
-            this.step();
         }
 
         private AbstractInsnNode pendingCancel, pendingBlackhole;
@@ -881,19 +1088,13 @@ public class Decorator extends Injector {
                 jumpThrow = false;
             } else if (decorationData.codeStructure.loopStart != null && decorationData.jumpToLoopStart.contains(insn)) {
                 jumpThrow = true;
-                decorationData.codeStructure.loopStart.getLabel().info = decorationData.codeStructure.loopStart;
-                super.visitJumpInsn(Opcodes.GOTO, decorationData.codeStructure.loopStart.getLabel());
-                decorationData.codeStructure.loopStart.getLabel().info = null;
+                this.jumpTo(decorationData.codeStructure.loopStart);
             } else if (decorationData.codeStructure.loopEnd != null && decorationData.jumpToLoopEnd.contains(insn)) {
                 jumpThrow = true;
-                decorationData.codeStructure.loopEnd.getLabel().info = decorationData.codeStructure.loopEnd;
-                super.visitJumpInsn(Opcodes.GOTO, decorationData.codeStructure.loopEnd.getLabel());
-                decorationData.codeStructure.loopEnd.getLabel().info = null;
+                this.jumpTo(decorationData.codeStructure.loopEnd);
             } else if (decorationData.codeStructure.codeBlockEnd != null && decorationData.jumpToCodeBlockEnd.contains(insn)) {
                 jumpThrow = true;
-                decorationData.codeStructure.codeBlockEnd.getLabel().info = decorationData.codeStructure.codeBlockEnd;
-                super.visitJumpInsn(Opcodes.GOTO, decorationData.codeStructure.codeBlockEnd.getLabel());
-                decorationData.codeStructure.codeBlockEnd.getLabel().info = null;
+                this.jumpTo(decorationData.codeStructure.codeBlockEnd);
             } else if (pendingCancel == insn) {
                 super.visitInsn(target.returnType.getOpcode(Opcodes.IRETURN));
                 pendingCancel = null;
@@ -919,54 +1120,22 @@ public class Decorator extends Injector {
             }
         }
 
-        void step() {
-            var mn = new MethodNode();
-            blocks.add(mn);
-            this.mv = mn;
-        }
-
-        @Override
-        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
-            if (owner.equals(classNode.name) && name.equals(methodNode.name) && descriptor.equals(methodNode.desc)) {
-                throw new InvalidInjectionException(info, "Inlining recursive method");
-            }
-            super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
-        }
-
-        @Override
-        public void visitVarInsn(int opcode, int varIndex) {
-            super.visitVarInsn(opcode, decorationData.lvtMap[varIndex]);
-        }
-
-        @Override
-        public void visitIincInsn(int varIndex, int increment) {
-            super.visitIincInsn(decorationData.lvtMap[varIndex], increment);
-        }
-
-        @Override
-        public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
-            if (type == Opcodes.F_FULL || type == Opcodes.F_NEW) {
-                var mergedNum = numLocal + decorationData.targetLocals.size();
-                var mergedLocal = new Object[mergedNum];
-                System.arraycopy(decorationData.targetLocals.toArray(), 0, mergedLocal, 0, decorationData.targetLocals.size());
-                System.arraycopy(local, 0, mergedLocal, decorationData.targetLocals.size(), numLocal);
-                super.visitFrame(type, mergedNum, mergedLocal, numStack, stack);
-            } else {
-                super.visitFrame(type, numLocal, local, numStack, stack);
+        void next(AbstractInsnNode[] insns) {
+            for (var insn : insns) {
+                this.next(insn);
             }
         }
 
-        @Override
-        public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end,
-                                       int index) {
-            super.visitLocalVariable(name, descriptor, signature, start, end, decorationData.lvtMap[index]);
+        // target labels are used as is, without going through Label#info
+        private void jumpTo(LabelNode label) {
+            this.instructions().add(new JumpInsnNode(Opcodes.GOTO, label));
         }
 
         @Override
         public void visitInsn(int opcode) {
             if (opcode == decorationData.returnType.getOpcode(Opcodes.IRETURN)) {
                 if (decorationData.hasEnd) {
-                    super.visitJumpInsn(Opcodes.GOTO, decorationData.end);
+                    this.mv.visitJumpInsn(Opcodes.GOTO, decorationData.end);
                 }
             } else {
                 super.visitInsn(opcode);
@@ -976,7 +1145,7 @@ public class Decorator extends Injector {
         @Override
         public void visitEnd() {
             if (decorationData.hasEnd) {
-                super.visitLabel(decorationData.end);
+                this.mv.visitLabel(decorationData.end);
             }
             super.visitEnd();
         }
@@ -985,13 +1154,19 @@ public class Decorator extends Injector {
     private static final String MERGED_DESC = Type.getDescriptor(MixinMerged.class);
 
     public static void postMixin(ClassNode classNode) {
+        DecorationBatch.flush(classNode);
+        // handlers are only checked in classes the injectors touched, all other classes pass through untouched
+        if (!InjectedRegions.touched(classNode)) {
+            return;
+        }
         for (MethodNode method : classNode.methods) {
-            if (method.invisibleAnnotations != null && method.name.contains("$") && !method.name.startsWith("decorate$")
-                && method.invisibleAnnotations.stream().anyMatch(it -> it.desc.equals(MERGED_DESC))) {
-                for (AbstractInsnNode node : method.instructions) {
-                    if (node instanceof MethodInsnNode mn && mn.owner.equals(DECORATION_TYPE.getInternalName())) {
-                        throw new InjectionError("Non decoration injector " + classNode.name + " " + method.name + " has DecorationOps#" + mn.name);
-                    }
+            if (method.invisibleAnnotations == null || method.name.indexOf('$') < 0 || method.name.startsWith("decorate$")
+                || method.invisibleAnnotations.stream().noneMatch(it -> it.desc.equals(MERGED_DESC))) {
+                continue;
+            }
+            for (AbstractInsnNode node : method.instructions) {
+                if (node instanceof MethodInsnNode mn && mn.owner.equals(DECORATION_TYPE.getInternalName())) {
+                    throw new InjectionError("Non decoration injector " + classNode.name + " " + method.name + " has DecorationOps#" + mn.name);
                 }
             }
         }
@@ -28,7 +28,9 @@ public class DecoratorInfo extends InjectionInfo {
 
     @Override
     public void prepare() {
+        var event = InjectorEvent.begin("prepare", this, this.method, null);
         super.prepare();
+        event.finish(null);
         for (var nodes : this.targetNodes.values()) {
             for (var node : nodes) {
                 node.decorate(DECORATOR_ORIGINAL_INJECTION_POINT, this.injectionPoints.get(0));
@@ -40,4 +42,11 @@ public class DecoratorInfo extends InjectionInfo {
     protected String getDescription() {
         return "Decorate";
     }
+
+    /**
+     * @return layout of the handler precomputed at compile time, or derived from its bytecode if it is not indexed
+     */
+    HandlerIndex.Handler handler() {
+        return HandlerIndex.find(this.getMixin().getClassName(), this.method);
+    }
 }
@@ -1,27 +1,48 @@
 package io.izzel.arclight.mixin.injector;
 
+import io.izzel.arclight.mixin.callback.BooleanCallbackInfo;
+import io.izzel.arclight.mixin.callback.DoubleCallbackInfo;
+import io.izzel.arclight.mixin.callback.FloatCallbackInfo;
+import io.izzel.arclight.mixin.callback.IntCallbackInfo;
+import io.izzel.arclight.mixin.callback.LongCallbackInfo;
+import io.izzel.arclight.mixin.callback.ReusableCallbackInfo;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 import org.spongepowered.asm.mixin.injection.InjectionPoint;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 import org.spongepowered.asm.mixin.injection.code.Injector;
 import org.spongepowered.asm.mixin.injection.struct.InjectionInfo;
 import org.spongepowered.asm.mixin.injection.struct.InjectionNodes;
 import org.spongepowered.asm.mixin.injection.struct.Target;
 import org.spongepowered.asm.mixin.injection.throwables.InvalidInjectionException;
+import org.spongepowered.asm.util.Annotations;
 import org.spongepowered.asm.util.Bytecode;
 import org.spongepowered.asm.util.Constants;
 import org.spongepowered.asm.util.SignaturePrinter;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Ejector extends Injector {
 
@@ -32,6 +53,9 @@ public class Ejector extends Injector {
         final Type[] targetArgs;
         final Type[] handlerArgs;
 
+        String callbackInfoClass, carrierClass;
+        int callbackInfoVar;
+
         EjectInvokeData(Target target, MethodInsnNode node) {
             super(target);
             this.node = node;
@@ -48,23 +72,49 @@ public class Ejector extends Injector {
 
     }
 
+    private static final String REUSABLE_CALLBACK_INFO = Type.getInternalName(ReusableCallbackInfo.class);
+    private static final String CALLBACK_INFO = Type.getInternalName(CallbackInfo.class);
+    private static final String CALLBACK_INFO_RETURNABLE = Type.getInternalName(CallbackInfoReturnable.class);
+
+    private final boolean reuseCallbackInfo;
+    private final boolean inline;
+    private final HandlerIndex.Handler handler;
+    // slots read or written by the handler, only scanned if the index does not know the used parameters
+    private final BitSet handlerVarSlots;
+
     public Ejector(InjectionInfo info) {
         super(info, "@Eject");
+        this.reuseCallbackInfo = Annotations.<Boolean>getValue(info.getAnnotationNode(), "reuseCallbackInfo") == Boolean.TRUE;
+        this.inline = Annotations.<Boolean>getValue(info.getAnnotationNode(), "inline") == Boolean.TRUE;
+        this.handler = info instanceof EjectorInfo ejectorInfo ? ejectorInfo.handler() : HandlerIndex.of(this.methodNode);
+        var slots = new BitSet();
+        if (this.handler.used() == null) {
+            for (var insn : this.methodNode.instructions) {
+                if (insn instanceof VarInsnNode varInsn) {
+                    slots.set(varInsn.var);
+                } else if (insn instanceof IincInsnNode iinc) {
+                    slots.set(iinc.var);
+                }
+            }
+        }
+        this.handlerVarSlots = slots;
     }
 
-    private String callbackInfoClass;
-    private int callbackInfoVar;
+    // derived from the handler only, per callsite state lives in EjectInvokeData
+    private final Map<String, Map<AbstractInsnNode, MethodInsnNode>> callbackInfoCalls = new ConcurrentHashMap<>();
 
     @Override
     protected void inject(Target target, InjectionNodes.InjectionNode node) {
         if (node.isReplaced()) {
-            throw new UnsupportedOperationException("Indirect target failure for " + this.info);
+            throw new InvalidInjectionException(this.info, String.format("Ejector %s#%s targets an instruction in %s replaced by another injector",
+                this.info.getMixin().getClassName(), this.info.getMethodName(), target));
         }
         this.checkTargetForNode(target, node, InjectionPoint.RestrictTargetLevel.CONSTRUCTORS_AFTER_DELEGATE);
-
         if (node.getCurrentTarget() instanceof MethodInsnNode) {
             this.checkTargetForNode(target, node, InjectionPoint.RestrictTargetLevel.ALLOW_ALL);
+            var event = InjectorEvent.begin("injectAtInvoke", this.info, this.methodNode, target);
             this.injectAtInvoke(target, node);
+            event.finish(target);
             return;
         }
         throw new InvalidInjectionException(this.info, String.format("%s annotation on is targeting an invalid insn in %s in %s",
@@ -74,74 +124,430 @@ public class Ejector extends Injector {
     private void injectAtInvoke(Target target, InjectionNodes.InjectionNode node) {
         EjectInvokeData data = new EjectInvokeData(target, ((MethodInsnNode) node.getCurrentTarget()));
         this.validateIndirectParams(data, data.returnType, data.handlerArgs);
+        if (this.inline) {
+            var exceeded = SizeBudget.exceeded(target, SizeBudget.size(this.methodNode.instructions));
+            if (exceeded == null || SizeBudget.POLICY != SizeBudget.Policy.OUTLINE) {
+                SizeBudget.report(this.info, target, exceeded, logger);
+                this.injectInline(target, data);
+                return;
+            }
+            // OUTLINE, call the handler instead
+        }
         InsnList insnList = new InsnList();
 
         Target.Extension extraLocals = target.extendLocals();
         Target.Extension extraStack = target.extendStack();
 
-        instanceCallbackInfo(insnList, target);
-        AbstractInsnNode insnNode = invokeCallback(target, insnList, data, extraLocals, extraStack);
-        injectCancellationCode(insnList, target);
+        var callbackInfoUsed = this.isCallbackInfoUsed(data.handlerArgs.length);
+        if (callbackInfoUsed && this.reuseCallbackInfo) {
+            this.callbackInfoCalls(data, "reuseCallbackInfo");
+        }
+        if (callbackInfoUsed) {
+            instanceCallbackInfo(insnList, target, data);
+        }
+        AbstractInsnNode insnNode = invokeCallback(target, insnList, data, extraLocals, extraStack, callbackInfoUsed);
+        if (callbackInfoUsed) {
+            injectCancellationCode(insnList, target, data);
+        }
+        var regionPrev = data.node.getPrevious();
+        var regionNext = data.node.getNext();
+        var regionSize = TargetAnalysis.of(target).regionSize(regionPrev, regionNext);
         target.replaceNode(data.node, insnNode, insnList);
+        InjectedRegions.mark(target, regionPrev, regionNext);
+        TargetAnalysis.of(target).updateCodeSize(regionPrev, regionNext, regionSize);
+        TargetAnalysis.of(target).positions().update(regionPrev, regionNext);
 
         extraLocals.apply();
         extraStack.apply();
     }
 
-    protected void injectCancellationCode(InsnList callback, Target target) {
-        callback.add(new VarInsnNode(Opcodes.ALOAD, this.callbackInfoVar));
-        callback.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, this.callbackInfoClass, "isCancelled", "()Z", false));
+    // copy the handler body in place of the invoke, handler locals are moved above the target locals
+    private void injectInline(Target target, EjectInvokeData data) {
+        var callbackInfoIndex = data.handlerArgs.length;
+        var callbackInfoCalls = this.callbackInfoCalls(data, "inline");
+        var adapter = TargetAnalysis.of(target).frames().adapterAt(data.node);
+        if (adapter == null) {
+            throw new InvalidInjectionException(this.info, "Injected into dead code");
+        }
+        var callsiteStack = adapter.getCurrent(adapter.stack);
+        var below = callsiteStack.subList(0, callsiteStack.size() - data.handlerArgs.length);
+
+        var firstArgSlot = this.isStatic ? 0 : 1;
+        var callbackInfoSlot = firstArgSlot + this.handler.slots()[callbackInfoIndex];
+        var base = Decorator.handlerLocalsBase(adapter, target.method);
+        var returnSlot = target.returnType.equals(Type.VOID_TYPE) || callbackInfoCalls.isEmpty() ? -1 : base + this.methodNode.maxLocals;
+        var spillSlot = base + this.methodNode.maxLocals + (returnSlot < 0 ? 0 : target.returnType.getSize());
+        var targetArgIndices = target.getArgIndices();
+        var written = this.writtenSlots();
+        var slotMap = new int[this.methodNode.maxLocals];
+        for (int slot = 0; slot < slotMap.length; slot++) {
+            slotMap[slot] = base + slot;
+        }
+        if (!this.isStatic) {
+            slotMap[0] = 0;
+        }
+        slotMap[callbackInfoSlot] = -1;
+        var insnList = new InsnList();
+        for (int i = data.handlerArgs.length - 1; i >= 0; i--) {
+            var slot = firstArgSlot + this.handler.slots()[i];
+            insnList.add(new VarInsnNode(data.handlerArgs[i].getOpcode(Opcodes.ISTORE), slotMap[slot]));
+        }
+        // a catch clears the operand stack, values below the arguments are kept in locals then
+        var spill = !this.methodNode.tryCatchBlocks.isEmpty() && !below.isEmpty();
+        var frameLocals = new ArrayList<>(adapter.locals);
+        while (frameLocals.size() < spillSlot) {
+            frameLocals.add(Opcodes.TOP);
+        }
+        var spillSlots = new int[below.size()];
+        var nextSlot = spillSlot;
+        if (spill) {
+            for (int i = below.size() - 1; i >= 0; i--) {
+                spillSlots[i] = nextSlot;
+                insnList.add(new VarInsnNode(EnhancedAnalyzerAdapter.getOpcode(Opcodes.ISTORE, below.get(i)), nextSlot));
+                frameLocals.addAll(HandlerCopier.expand(List.of(below.get(i))));
+                nextSlot = frameLocals.size();
+            }
+        }
+        // captured arguments are aliased unless the handler assigns them, the target keeps its own values then
+        for (int i = 0, slot = callbackInfoSlot + 1; i < data.captureTargetArgs; slot += this.methodArgs[callbackInfoIndex + 1 + i].getSize(), i++) {
+            if (written.get(slot)) {
+                var type = this.methodArgs[callbackInfoIndex + 1 + i];
+                insnList.add(new VarInsnNode(type.getOpcode(Opcodes.ILOAD), targetArgIndices[i]));
+                insnList.add(new VarInsnNode(type.getOpcode(Opcodes.ISTORE), slotMap[slot]));
+            } else {
+                slotMap[slot] = targetArgIndices[i];
+            }
+        }
+        // cancel() returns the value of an earlier setReturnValue on its path, the default otherwise
+        if (returnSlot >= 0) {
+            insnList.add(getDefaultValue(target.returnType));
+            insnList.add(new VarInsnNode(target.returnType.getOpcode(Opcodes.ISTORE), returnSlot));
+            frameLocals.set(returnSlot, EnhancedAnalyzerAdapter.getFrameItem(target.returnType));
+        }
+        var resultSlot = nextSlot;
+        target.method.maxLocals = Math.max(target.method.maxLocals, resultSlot + (spill ? this.returnType.getSize() : 0));
+
+        var copier = new EjectCopier(target, data, slotMap, base, frameLocals, spill ? List.of() : below, callbackInfoCalls, returnSlot);
+        copier.copyMetadata();
+        for (var insn : this.methodNode.instructions) {
+            copier.next(insn);
+        }
+        copier.visitEnd();
+        insnList.add(copier.instructions());
+        insnList.add(copier.end);
+        if (copier.usesEnd) {
+            var stack = new ArrayList<>(spill ? List.of() : below);
+            if (this.returnType.getSize() > 0) {
+                stack.add(EnhancedAnalyzerAdapter.getFrameItem(this.returnType));
+            }
+            var locals = HandlerCopier.compact(frameLocals);
+            insnList.add(new FrameNode(FrameEncoder.absoluteFrameType(target.method), locals.size(), locals.toArray(), stack.size(), stack.toArray()));
+        }
+        if (spill) {
+            if (this.returnType.getSize() > 0) {
+                insnList.add(new VarInsnNode(this.returnType.getOpcode(Opcodes.ISTORE), resultSlot));
+            }
+            for (int i = 0; i < below.size(); i++) {
+                insnList.add(new VarInsnNode(EnhancedAnalyzerAdapter.getOpcode(Opcodes.ILOAD, below.get(i)), spillSlots[i]));
+            }
+            if (this.returnType.getSize() > 0) {
+                insnList.add(new VarInsnNode(this.returnType.getOpcode(Opcodes.ILOAD), resultSlot));
+            }
+        }
+        if (data.coerceReturnType && data.returnType.getSort() >= Type.ARRAY) {
+            insnList.add(new TypeInsnNode(Opcodes.CHECKCAST, data.returnType.getInternalName()));
+        }
+
+        Target.Extension extraStack = target.extendStack();
+        extraStack.add(this.methodNode.maxStack);
+        var regionPrev = data.node.getPrevious();
+        var regionNext = data.node.getNext();
+        var regionSize = TargetAnalysis.of(target).regionSize(regionPrev, regionNext);
+        target.replaceNode(data.node, insnList);
+        InjectedRegions.mark(target, regionPrev, regionNext);
+        TargetAnalysis.of(target).updateCodeSize(regionPrev, regionNext, regionSize);
+        TargetAnalysis.of(target).positions().update(regionPrev, regionNext);
+        copier.finish(target);
+        extraStack.apply();
+        this.info.addCallbackInvocation(this.methodNode);
+    }
+
+    private BitSet writtenSlots() {
+        var written = new BitSet();
+        for (var insn : this.methodNode.instructions) {
+            if (insn instanceof VarInsnNode varInsn && varInsn.getOpcode() >= Opcodes.ISTORE) {
+                written.set(varInsn.var);
+            } else if (insn instanceof IincInsnNode iinc) {
+                written.set(iinc.var);
+            }
+        }
+        return written;
+    }
+
+    // lowers callback info calls to stores of the return value and returns from the target
+    private class EjectCopier extends HandlerCopier {
+
+        private final Target target;
+        private final Map<AbstractInsnNode, MethodInsnNode> callbackInfoCalls;
+        private final int returnSlot;
+        private final AbstractInsnNode lastInsn;
+        private final Set<LabelNode> jumpTargets = new HashSet<>();
+
+        final LabelNode end = new LabelNode();
+        boolean usesEnd;
+        private boolean cancelled;
+
+        EjectCopier(Target target, EjectInvokeData data, int[] slotMap, int ownedStart, List<Object> locals, List<Object> stack,
+                    Map<AbstractInsnNode, MethodInsnNode> callbackInfoCalls, int returnSlot) {
+            super(info, classNode.name, target.method, methodNode, slotMap, ownedStart, locals, stack);
+            this.target = target;
+            this.callbackInfoCalls = callbackInfoCalls;
+            this.returnSlot = returnSlot;
+            AbstractInsnNode lastInsn = null;
+            for (var insn : methodNode.instructions) {
+                if (insn.getOpcode() >= 0) {
+                    lastInsn = insn;
+                }
+                if (insn instanceof JumpInsnNode jump) {
+                    this.jumpTargets.add(jump.label);
+                } else if (insn instanceof TableSwitchInsnNode ts) {
+                    this.jumpTargets.addAll(ts.labels);
+                    this.jumpTargets.add(ts.dflt);
+                } else if (insn instanceof LookupSwitchInsnNode ls) {
+                    this.jumpTargets.addAll(ls.labels);
+                    this.jumpTargets.add(ls.dflt);
+                }
+            }
+            for (var tryCatch : methodNode.tryCatchBlocks) {
+                this.jumpTargets.add(tryCatch.handler);
+            }
+            this.lastInsn = lastInsn;
+        }
+
+        void next(AbstractInsnNode insn) {
+            if (this.cancelled && (insn.getType() == AbstractInsnNode.JUMP_INSN || insn.getType() == AbstractInsnNode.FRAME
+                || insn.getType() == AbstractInsnNode.TABLESWITCH_INSN || insn.getType() == AbstractInsnNode.LOOKUPSWITCH_INSN
+                || insn.getOpcode() == Opcodes.ATHROW || this.jumpTargets.contains(insn))) {
+                throw new InvalidInjectionException(info, "Return statement must be followed after cancel()");
+            }
+            if (this.callbackInfoCalls.containsKey(insn)) {
+                return;
+            }
+            if (insn instanceof MethodInsnNode mn && this.callbackInfoCalls.containsValue(mn)) {
+                this.cancelled |= lowerCallbackInfoCall(this.instructions(), this.target, mn, this.returnSlot);
+            } else if (insn.getOpcode() >= Opcodes.IRETURN && insn.getOpcode() <= Opcodes.RETURN) {
+                var instructions = this.instructions();
+                if (this.cancelled) {
+                    if (returnType.getSize() > 0) {
+                        instructions.add(new InsnNode(returnType.getSize() == 2 ? Opcodes.POP2 : Opcodes.POP));
+                    }
+                    if (this.returnSlot >= 0) {
+                        instructions.add(new VarInsnNode(this.target.returnType.getOpcode(Opcodes.ILOAD), this.returnSlot));
+                    }
+                    instructions.add(new InsnNode(this.target.returnType.getOpcode(Opcodes.IRETURN)));
+                    this.cancelled = false;
+                } else if (insn != this.lastInsn) {
+                    instructions.add(new JumpInsnNode(Opcodes.GOTO, this.end));
+                    this.usesEnd = true;
+                }
+            } else {
+                insn.accept(this);
+            }
+        }
+
+        @Override
+        public void visitEnd() {
+            if (this.cancelled) {
+                throw new InvalidInjectionException(info, "Return statement must be followed after cancel()");
+            }
+            super.visitEnd();
+        }
+    }
+
+    // returns true if the call cancels the target
+    private boolean lowerCallbackInfoCall(InsnList insnList, Target target, MethodInsnNode mn, int returnSlot) {
+        switch (mn.name) {
+            case "cancel" -> {
+                return true;
+            }
+            case "setReturnValue", "setReturnValueB", "setReturnValueC", "setReturnValueD", "setReturnValueF",
+                 "setReturnValueI", "setReturnValueJ", "setReturnValueS", "setReturnValueZ" -> {
+                var valueType = Type.getArgumentTypes(mn.desc)[0];
+                if (valueType.getSort() == Type.OBJECT && target.returnType.getSort() < Type.ARRAY) {
+                    var boxingType = Bytecode.getBoxingType(target.returnType);
+                    insnList.add(new TypeInsnNode(Opcodes.CHECKCAST, boxingType));
+                    insnList.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, boxingType, Bytecode.getUnboxingMethod(target.returnType),
+                        "()" + target.returnType.getDescriptor(), false));
+                } else if (valueType.getSort() == Type.OBJECT && !target.returnType.getInternalName().equals("java/lang/Object")) {
+                    insnList.add(new TypeInsnNode(Opcodes.CHECKCAST, target.returnType.getInternalName()));
+                }
+                insnList.add(new VarInsnNode(target.returnType.getOpcode(Opcodes.ISTORE), returnSlot));
+                return true;
+            }
+            case "isCancellable" -> {
+                insnList.add(new InsnNode(Opcodes.ICONST_1));
+                return false;
+            }
+            default -> throw new InvalidInjectionException(this.info, "CallbackInfo#" + mn.name + " is not supported by @Eject(inline = true)");
+        }
+    }
+
+    private static AbstractInsnNode getDefaultValue(Type type) {
+        return switch (type.getSort()) {
+            case Type.LONG -> new InsnNode(Opcodes.LCONST_0);
+            case Type.FLOAT -> new InsnNode(Opcodes.FCONST_0);
+            case Type.DOUBLE -> new InsnNode(Opcodes.DCONST_0);
+            case Type.ARRAY, Type.OBJECT -> new InsnNode(Opcodes.ACONST_NULL);
+            default -> new InsnNode(Opcodes.ICONST_0);
+        };
+    }
+
+    protected void injectCancellationCode(InsnList callback, Target target, EjectInvokeData data) {
+        callback.add(new VarInsnNode(Opcodes.ALOAD, data.callbackInfoVar));
+        callback.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, data.carrierClass, "isCancelled", "()Z", false));
         LabelNode notCancelled = new LabelNode();
         callback.add(new JumpInsnNode(Opcodes.IFEQ, notCancelled));
-        this.injectReturnCode(callback, target);
+        this.injectReturnCode(callback, target, data);
         callback.add(notCancelled);
+        this.releaseCallbackInfo(callback, data);
     }
 
-    protected void injectReturnCode(InsnList callback, Target target) {
+    protected void injectReturnCode(InsnList callback, Target target, EjectInvokeData data) {
         if (target.returnType.equals(Type.VOID_TYPE)) {
+            this.releaseCallbackInfo(callback, data);
             callback.add(new InsnNode(Opcodes.RETURN));
         } else {
-            callback.add(new VarInsnNode(Opcodes.ALOAD, this.callbackInfoVar));
+            callback.add(new VarInsnNode(Opcodes.ALOAD, data.callbackInfoVar));
             String accessor = getReturnAccessor(target.returnType);
             String descriptor = getReturnDescriptor(target.returnType);
-            callback.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, this.callbackInfoClass, accessor, descriptor, false));
+            callback.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, data.carrierClass, accessor, descriptor, false));
             if (target.returnType.getSort() >= Type.ARRAY) {
                 callback.add(new TypeInsnNode(Opcodes.CHECKCAST, target.returnType.getInternalName()));
             }
+            this.releaseCallbackInfo(callback, data);
             callback.add(new InsnNode(target.returnType.getOpcode(Opcodes.IRETURN)));
         }
     }
 
-    protected AbstractInsnNode invokeCallback(Target target, InsnList insnList, EjectInvokeData data, Target.Extension extraLocals, Target.Extension extraStack) {
-        extraLocals.add(data.handlerArgs).add(2);
+    protected void releaseCallbackInfo(InsnList callback, EjectInvokeData data) {
+        if (this.reuseCallbackInfo) {
+            callback.add(new VarInsnNode(Opcodes.ALOAD, data.callbackInfoVar));
+            callback.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, REUSABLE_CALLBACK_INFO, "release", "()V", false));
+        }
+    }
+
+    protected AbstractInsnNode invokeCallback(Target target, InsnList insnList, EjectInvokeData data, Target.Extension extraLocals,
+                                              Target.Extension extraStack, boolean callbackInfoUsed) {
+        extraLocals.add(data.handlerArgs);
+        if (callbackInfoUsed) {
+            extraLocals.add(2);
+        }
         extraStack.add(2);
         int[] argMap = this.storeArgs(target, data.handlerArgs, insnList, 0);
         var newArgsMap = new int[argMap.length + data.captureTargetArgs + 1];
         System.arraycopy(argMap, 0, newArgsMap, 0, argMap.length);
-        newArgsMap[argMap.length] = this.callbackInfoVar;
+        newArgsMap[argMap.length] = data.callbackInfoVar;
         if (data.captureTargetArgs > 0) {
             int argSize = Bytecode.getArgsSize(target.arguments, 0, data.captureTargetArgs);
             extraLocals.add(argSize);
             extraStack.add(argSize);
             System.arraycopy(target.getArgIndices(), 0, newArgsMap, argMap.length + 1, data.captureTargetArgs);
         }
-        AbstractInsnNode champion = this.invokeHandlerWithArgs(this.methodArgs, insnList, newArgsMap);
+        AbstractInsnNode champion;
+        if (callbackInfoUsed) {
+            champion = this.invokeHandlerWithArgs(this.methodArgs, insnList, newArgsMap);
+        } else {
+            // no CallbackInfo is allocated, the handler never reads it
+            if (!this.isStatic) {
+                insnList.add(new VarInsnNode(Opcodes.ALOAD, 0));
+            }
+            for (int i = 0; i < newArgsMap.length; i++) {
+                if (i == argMap.length) {
+                    insnList.add(new InsnNode(Opcodes.ACONST_NULL));
+                } else {
+                    insnList.add(new VarInsnNode(this.methodArgs[i].getOpcode(Opcodes.ILOAD), newArgsMap[i]));
+                }
+            }
+            champion = this.invokeHandler(insnList);
+        }
         if (data.coerceReturnType && data.returnType.getSort() >= Type.ARRAY) {
             insnList.add(new TypeInsnNode(Opcodes.CHECKCAST, data.returnType.getInternalName()));
         }
         return champion;
     }
 
-    protected void instanceCallbackInfo(InsnList callback, Target target) {
-        callback.add(new TypeInsnNode(Opcodes.NEW, this.callbackInfoClass));
-        callback.add(new InsnNode(Opcodes.DUP));
-        callback.add(new LdcInsnNode(target.method.name));
-        callback.add(new InsnNode(Opcodes.ICONST_1));
-        callback.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, this.callbackInfoClass, Constants.CTOR, String.format("(%sZ)V", Constants.STRING_DESC), false));
+    protected boolean isCallbackInfoUsed(int callbackInfoIndex) {
+        if (this.handler.used() != null) {
+            return this.handler.used().get(callbackInfoIndex);
+        }
+        var slot = (this.isStatic ? 0 : 1) + this.handler.slots()[callbackInfoIndex];
+        return this.handlerVarSlots.get(slot);
+    }
 
-        this.callbackInfoVar = target.allocateLocal();
-        target.addLocalVariable(this.callbackInfoVar, "callbackInfo" + this.callbackInfoVar, "L" + this.callbackInfoClass + ";");
-        callback.add(new VarInsnNode(Opcodes.ASTORE, this.callbackInfoVar));
+    protected void instanceCallbackInfo(InsnList callback, Target target, EjectInvokeData data) {
+        if (this.reuseCallbackInfo) {
+            callback.add(new MethodInsnNode(Opcodes.INVOKESTATIC, REUSABLE_CALLBACK_INFO, "acquire", "()L" + REUSABLE_CALLBACK_INFO + ";", false));
+        } else {
+            callback.add(new TypeInsnNode(Opcodes.NEW, data.carrierClass));
+            callback.add(new InsnNode(Opcodes.DUP));
+            callback.add(new LdcInsnNode(target.method.name));
+            callback.add(new InsnNode(Opcodes.ICONST_1));
+            callback.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, data.carrierClass, Constants.CTOR, String.format("(%sZ)V", Constants.STRING_DESC), false));
+        }
+
+        data.callbackInfoVar = target.allocateLocal();
+        target.addLocalVariable(data.callbackInfoVar, "callbackInfo" + data.callbackInfoVar, "L" + data.carrierClass + ";");
+        callback.add(new VarInsnNode(Opcodes.ASTORE, data.callbackInfoVar));
+    }
+
+    private Map<AbstractInsnNode, MethodInsnNode> callbackInfoCalls(EjectInvokeData data, String mode) {
+        return this.callbackInfoCalls.computeIfAbsent(data.carrierClass,
+            carrier -> this.findCallbackInfoCalls(data.handlerArgs.length, mode, carrier));
+    }
+
+    // pooled or inlined callback info must only be used as a receiver of its own methods inside the handler
+    private Map<AbstractInsnNode, MethodInsnNode> findCallbackInfoCalls(int callbackInfoIndex, String mode, String carrierClass) {
+        var slot = (this.isStatic ? 0 : 1) + this.handler.slots()[callbackInfoIndex];
+        var adapter = new EnhancedAnalyzerAdapter(this.classNode.name, this.methodNode.access, this.methodNode.name, this.methodNode.desc, null);
+        var calls = new IdentityHashMap<AbstractInsnNode, MethodInsnNode>();
+        AbstractInsnNode receiver = null;
+        var receiverDepth = -1;
+        for (var insn : this.methodNode.instructions) {
+            var escaped = false;
+            if (insn instanceof VarInsnNode varInsn && varInsn.var == slot) {
+                escaped = varInsn.getOpcode() != Opcodes.ALOAD || receiverDepth >= 0 || adapter.stack == null;
+                receiverDepth = escaped ? -1 : adapter.stack.size();
+                receiver = insn;
+            } else if (receiverDepth >= 0) {
+                if (insn instanceof MethodInsnNode mn && mn.getOpcode() == Opcodes.INVOKEVIRTUAL
+                    && adapter.stack.size() - (Type.getArgumentsAndReturnSizes(mn.desc) >> 2) == receiverDepth) {
+                    escaped = !mn.owner.equals(carrierClass) && !mn.owner.equals(CALLBACK_INFO)
+                        && !mn.owner.equals(CALLBACK_INFO_RETURNABLE) || !isCallbackInfoState(mn.name);
+                    calls.put(receiver, mn);
+                    receiverDepth = -1;
+                } else if (insn.getType() == AbstractInsnNode.JUMP_INSN || insn.getType() == AbstractInsnNode.FRAME
+                    || insn.getType() == AbstractInsnNode.TABLESWITCH_INSN || insn.getType() == AbstractInsnNode.LOOKUPSWITCH_INSN
+                    || insn.getOpcode() >= Opcodes.DUP_X1 && insn.getOpcode() <= Opcodes.SWAP) {
+                    escaped = true;
+                }
+            }
+            if (escaped) {
+                throw new InvalidInjectionException(this.info, "CallbackInfo escapes from @Eject(" + mode + " = true) handler at bci "
+                    + this.methodNode.instructions.indexOf(insn));
+            }
+            insn.accept(adapter);
+            if (receiverDepth >= 0 && (adapter.stack == null || adapter.stack.size() <= receiverDepth)) {
+                throw new InvalidInjectionException(this.info, "CallbackInfo escapes from @Eject(" + mode + " = true) handler at bci "
+                    + this.methodNode.instructions.indexOf(insn));
+            }
+        }
+        return calls;
+    }
+
+    // methods that only read or write the cancel state, release() and the like would let generated code reuse the carrier early
+    private static boolean isCallbackInfoState(String name) {
+        return name.equals("cancel") || name.equals("isCancelled") || name.equals("isCancellable")
+            || name.startsWith("setReturnValue") || name.startsWith("getReturnValue");
     }
 
     protected final void validateIndirectParams(EjectInvokeData injector, Type returnType, Type... args) {
@@ -162,10 +568,24 @@ public class Ejector extends Injector {
                     + this.methodNode.desc);
             }
 
-            if (this.callbackInfoClass == null) {
-                this.callbackInfoClass = injector.target.getCallbackInfoClass();
+            injector.callbackInfoClass = injector.target.getCallbackInfoClass();
+            var primitiveCarrier = getPrimitiveCallbackInfo(injector.target.returnType);
+            if (this.reuseCallbackInfo) {
+                // the pooled carrier is not a CallbackInfo, the handler has to declare it
+                injector.carrierClass = REUSABLE_CALLBACK_INFO;
+                if (!this.methodArgs[argIndex].equals(Type.getObjectType(REUSABLE_CALLBACK_INFO))) {
+                    throw new InvalidInjectionException(this.info, String.format("%s with reuseCallbackInfo must take %s, found %s",
+                        description, ReusableCallbackInfo.class.getName(), this.methodArgs[argIndex].getClassName()));
+                }
+            } else if (primitiveCarrier != null && this.methodArgs[argIndex].equals(Type.getObjectType(primitiveCarrier))) {
+                // only handlers declaring the primitive carrier get it, others keep plain CallbackInfoReturnable
+                injector.carrierClass = primitiveCarrier;
+            } else {
+                injector.carrierClass = injector.callbackInfoClass;
+            }
+            if (!this.methodArgs[argIndex].equals(Type.getObjectType(injector.carrierClass))) {
+                this.checkCoerce(argIndex, Type.getObjectType(injector.callbackInfoClass), description, false);
             }
-            this.checkCoerce(argIndex, Type.getObjectType(this.callbackInfoClass), description, false);
             argIndex++;
 
             for (int targetArg = 0; targetArg < injector.target.arguments.length && argIndex < this.methodArgs.length; targetArg++, argIndex++) {
@@ -192,6 +612,17 @@ public class Ejector extends Injector {
         }
     }
 
+    static String getPrimitiveCallbackInfo(Type returnType) {
+        return switch (returnType.getSort()) {
+            case Type.INT -> Type.getInternalName(IntCallbackInfo.class);
+            case Type.LONG -> Type.getInternalName(LongCallbackInfo.class);
+            case Type.FLOAT -> Type.getInternalName(FloatCallbackInfo.class);
+            case Type.DOUBLE -> Type.getInternalName(DoubleCallbackInfo.class);
+            case Type.BOOLEAN -> Type.getInternalName(BooleanCallbackInfo.class);
+            default -> null;
+        };
+    }
+
     static String getReturnAccessor(Type returnType) {
         if (returnType.getSort() == Type.OBJECT || returnType.getSort() == Type.ARRAY) {
             return "getReturnValue";
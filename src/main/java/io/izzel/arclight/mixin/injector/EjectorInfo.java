@@ -25,6 +25,13 @@ public class EjectorInfo extends InjectionInfo {
         return "Eject";
     }
 
+    /**
+     * @return layout of the handler precomputed at compile time, or derived from its bytecode if it is not indexed
+     */
+    HandlerIndex.Handler handler() {
+        return HandlerIndex.find(this.getMixin().getClassName(), this.method);
+    }
+
     @Override
     public void inject() {
         super.inject();
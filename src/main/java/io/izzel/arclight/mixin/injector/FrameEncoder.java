@@ -0,0 +1,45 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frame kinds of a method, absolute frames inserted by injectors follow the encoding of the method.
+ */
+public final class FrameEncoder {
+
+    private FrameEncoder() {
+    }
+
+    /**
+     * @return {@link Opcodes#F_NEW} if the method holds expanded frames, {@link Opcodes#F_FULL} otherwise,
+     * expanded and compressed frames cannot be mixed in one method
+     */
+    public static int absoluteFrameType(MethodNode method) {
+        for (var insn : method.instructions) {
+            if (insn instanceof FrameNode frame) {
+                return frame.type == Opcodes.F_NEW ? Opcodes.F_NEW : Opcodes.F_FULL;
+            }
+        }
+        return Opcodes.F_NEW;
+    }
+
+    /**
+     * @return locals of the implicit first frame of {@code method}
+     */
+    static List<Object> initialLocals(String owner, MethodNode method) {
+        var locals = new ArrayList<>();
+        if ((method.access & Opcodes.ACC_STATIC) == 0) {
+            locals.add(method.name.equals("<init>") ? Opcodes.UNINITIALIZED_THIS : owner);
+        }
+        for (var type : Type.getArgumentTypes(method.desc)) {
+            locals.add(EnhancedAnalyzerAdapter.getFrameItem(type));
+        }
+        return locals;
+    }
+}
@@ -0,0 +1,171 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Locals and stack state before every instruction of a method, computed in one pass and patched after inlining.
+ */
+public class FrameSolver {
+
+    private final String owner;
+    private final MethodNode method;
+    // insn -> frame before insn, absent for unreachable code
+    private final Map<AbstractInsnNode, Frame> frames = new IdentityHashMap<>();
+    private final Map<Object, Object> uninitializedTypes = new HashMap<>();
+    private final ArrayDeque<Edge> pending = new ArrayDeque<>();
+    private int solvedSize = -1;
+
+    public FrameSolver(String owner, MethodNode method) {
+        this.owner = owner;
+        this.method = method;
+    }
+
+    /**
+     * @return an analyzer positioned right before {@code insn}, or null if {@code insn} is not reachable
+     */
+    public EnhancedAnalyzerAdapter adapterAt(AbstractInsnNode insn) {
+        if (this.solvedSize != this.method.instructions.size() || !this.frames.containsKey(insn)) {
+            this.solve();
+        }
+        var frame = this.frames.get(insn);
+        return frame == null ? null : this.newAdapter(frame);
+    }
+
+    /**
+     * Recompute frames for instructions inserted or moved between {@code prev} and {@code next}, both exclusive.
+     * The state before the region is the state previously recorded before {@code origin}, and the state
+     * after the region is left untouched.
+     */
+    public void update(AbstractInsnNode prev, AbstractInsnNode next, AbstractInsnNode origin) {
+        var entry = this.frames.get(origin);
+        if (entry == null || this.solvedSize < 0) {
+            this.solvedSize = -1;
+            return;
+        }
+        var start = prev == null ? this.method.instructions.getFirst() : prev.getNext();
+        for (var insn = start; insn != null && insn != next; insn = insn.getNext()) {
+            this.frames.remove(insn);
+        }
+        this.propagate(start, next, this.newAdapter(entry), true);
+        this.drain();
+        this.solvedSize = this.method.instructions.size();
+    }
+
+    private void solve() {
+        this.frames.clear();
+        this.pending.clear();
+        this.uninitializedTypes.clear();
+        var adapter = new EnhancedAnalyzerAdapter(this.owner, this.method.access, this.method.name, this.method.desc, null);
+        adapter.uninitializedTypes = this.uninitializedTypes;
+        this.propagate(this.method.instructions.getFirst(), null, adapter, true);
+        // other transformers may leave handlers without frames
+        for (TryCatchBlockNode tryCatch : this.method.tryCatchBlocks) {
+            var start = this.frames.get(tryCatch.start);
+            if (start != null && !this.frames.containsKey(tryCatch.handler)) {
+                var exception = tryCatch.type == null ? "java/lang/Throwable" : tryCatch.type;
+                this.pending.add(new Edge(tryCatch.handler, new Frame(start.local, new Object[]{exception}), 0));
+            }
+        }
+        this.drain();
+        this.solvedSize = this.method.instructions.size();
+    }
+
+    // follow jumps into code not covered by frame nodes, e.g. control flow inserted by other transformers
+    private void drain() {
+        while (!this.pending.isEmpty()) {
+            var edge = this.pending.removeFirst();
+            if (!this.frames.containsKey(edge.label)) {
+                var stack = Arrays.copyOf(edge.frame.stack, edge.frame.stack.length - edge.pop);
+                this.propagate(edge.label, null, this.newAdapter(new Frame(edge.frame.local, stack)), false);
+            }
+        }
+    }
+
+    private void propagate(AbstractInsnNode start, AbstractInsnNode stop, EnhancedAnalyzerAdapter adapter, boolean linear) {
+        Frame last = null;
+        for (var insn = start; insn != null && insn != stop; insn = insn.getNext()) {
+            if (!linear && this.frames.containsKey(insn)) {
+                break;
+            }
+            if (adapter.locals == null) {
+                if (!linear) {
+                    break;
+                }
+                if (insn.getType() == AbstractInsnNode.FRAME) {
+                    insn.accept(adapter);
+                }
+                last = null;
+                continue;
+            }
+            if (last == null) {
+                last = new Frame(adapter.getCurrent(adapter.locals).toArray(), adapter.getCurrent(adapter.stack).toArray());
+            }
+            this.frames.put(insn, last);
+            this.addEdges(insn, last);
+            insn.accept(adapter);
+            if (insn.getOpcode() >= 0 || insn.getType() == AbstractInsnNode.FRAME) {
+                last = null;
+            }
+        }
+    }
+
+    private void addEdges(AbstractInsnNode insn, Frame before) {
+        if (insn instanceof JumpInsnNode jump) {
+            if (jump.getOpcode() != Opcodes.JSR) {
+                this.addEdge(jump.label, before, popCount(jump.getOpcode()));
+            }
+        } else if (insn instanceof TableSwitchInsnNode ts) {
+            for (var label : ts.labels) {
+                this.addEdge(label, before, 1);
+            }
+            this.addEdge(ts.dflt, before, 1);
+        } else if (insn instanceof LookupSwitchInsnNode ls) {
+            for (var label : ls.labels) {
+                this.addEdge(label, before, 1);
+            }
+            this.addEdge(ls.dflt, before, 1);
+        }
+    }
+
+    private void addEdge(LabelNode label, Frame before, int pop) {
+        if (!this.frames.containsKey(label)) {
+            this.pending.add(new Edge(label, before, pop));
+        }
+    }
+
+    private static int popCount(int opcode) {
+        if (opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ACMPNE) {
+            return 2;
+        } else if (opcode == Opcodes.GOTO) {
+            return 0;
+        } else {
+            return 1;
+        }
+    }
+
+    private EnhancedAnalyzerAdapter newAdapter(Frame frame) {
+        var adapter = new EnhancedAnalyzerAdapter(this.owner, this.method.access, this.method.name, this.method.desc, null);
+        adapter.uninitializedTypes = this.uninitializedTypes;
+        adapter.visitFrame(Opcodes.F_NEW, frame.local.length, frame.local, frame.stack.length, frame.stack);
+        return adapter;
+    }
+
+    private record Frame(Object[] local, Object[] stack) {
+    }
+
+    private record Edge(LabelNode label, Frame frame, int pop) {
+    }
+}
@@ -0,0 +1,263 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.MethodNode;
+import org.spongepowered.asm.mixin.injection.struct.InjectionInfo;
+import org.spongepowered.asm.mixin.injection.struct.Target;
+import org.spongepowered.asm.mixin.injection.throwables.InvalidInjectionException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies a handler body into a target method, shared by inlined {@code @Decorate} and {@code @Eject} handlers.
+ * <p>
+ * Handler labels are replaced by labels of the copy and handler locals are moved by a slot map. Slots mapped below
+ * {@code ownedStart} alias target locals, they keep the types and local variable entries of the target. Handler frames
+ * are merged into the target frame at the insertion point and written in the absolute encoding of the target.
+ * Subclasses write instructions that must not be remapped to {@link #mv} or {@link #instructions()} directly.
+ */
+class HandlerCopier extends MethodVisitor {
+
+    private final InjectionInfo info;
+    private final String owner;
+    private final MethodNode handler;
+    private final int[] slotMap;
+    private final int ownedStart;
+    private final List<Object> locals;
+    private final List<Object> stack;
+    private final int frameType;
+    // handler labels are shared with concurrent injections, every copy maps them to labels of its own
+    private final Map<Label, Label> labels = new IdentityHashMap<>();
+    // current handler frame locals, relative frames of the handler are expanded against it
+    private List<Object> handlerLocals;
+
+    final List<MethodNode> blocks = new ArrayList<>();
+
+    /**
+     * @param locals expanded target locals live across the copy, at least {@code ownedStart} slots
+     * @param stack  target stack below the copy
+     */
+    HandlerCopier(InjectionInfo info, String owner, MethodNode target, MethodNode handler, int[] slotMap, int ownedStart,
+                  List<Object> locals, List<Object> stack) {
+        super(Opcodes.ASM9, null);
+        this.info = info;
+        this.owner = owner;
+        this.handler = handler;
+        this.slotMap = slotMap;
+        this.ownedStart = ownedStart;
+        this.locals = locals;
+        this.stack = stack;
+        this.frameType = FrameEncoder.absoluteFrameType(target);
+        this.handlerLocals = FrameEncoder.initialLocals(owner, handler);
+        this.step();
+    }
+
+    /**
+     * Start a new block, instructions are collected into the last block.
+     */
+    void step() {
+        var mn = new MethodNode();
+        this.blocks.add(mn);
+        this.mv = mn;
+    }
+
+    /**
+     * @return instructions of the current block, instructions added here are not remapped
+     */
+    InsnList instructions() {
+        return ((MethodNode) this.mv).instructions;
+    }
+
+    /**
+     * Copy the local variables and try-catch blocks of the handler into the current block.
+     */
+    void copyMetadata() {
+        for (var lvn : this.handler.localVariables) {
+            lvn.accept(this);
+        }
+        for (var tryCatch : this.handler.tryCatchBlocks) {
+            tryCatch.accept(this);
+        }
+    }
+
+    /**
+     * Add the copied try-catch blocks and local variables to {@code target}, after the copy is inserted.
+     */
+    void finish(Target target) {
+        var tcns = this.blocks.get(0).tryCatchBlocks;
+        if (tcns != null && !tcns.isEmpty()) {
+            var positions = TargetAnalysis.of(target).positions();
+            var index = 0;
+            // handler blocks go after the target blocks enclosing them, inner blocks must come first
+            for (var i = target.method.tryCatchBlocks.size() - 1; i >= 0; i--) {
+                var tcn = target.method.tryCatchBlocks.get(i);
+                if (tcns.stream().anyMatch(it -> positions.compare(it.start, tcn.start) <= 0 && positions.compare(it.end, tcn.end) >= 0)) {
+                    index = i + 1;
+                    break;
+                }
+            }
+            target.method.tryCatchBlocks.addAll(index, tcns);
+        }
+        var lvns = this.blocks.get(0).localVariables;
+        if (lvns != null) {
+            target.method.localVariables.addAll(lvns);
+        }
+    }
+
+    int map(int slot) {
+        return slot < this.slotMap.length ? this.slotMap[slot] : -1;
+    }
+
+    Label map(Label label) {
+        return this.labels.computeIfAbsent(label, k -> new Label());
+    }
+
+    private Label[] map(Label[] labels) {
+        var mapped = new Label[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            mapped[i] = this.map(labels[i]);
+        }
+        return mapped;
+    }
+
+    private Object mapFrameItem(Object item) {
+        return item instanceof Label label ? this.map(label) : item;
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        if (owner.equals(this.owner) && name.equals(this.handler.name) && descriptor.equals(this.handler.desc)) {
+            throw new InvalidInjectionException(this.info, "Inlining recursive method");
+        }
+        super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int varIndex) {
+        super.visitVarInsn(opcode, this.map(varIndex));
+    }
+
+    @Override
+    public void visitIincInsn(int varIndex, int increment) {
+        super.visitIincInsn(this.map(varIndex), increment);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+        super.visitLabel(this.map(label));
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        super.visitJumpInsn(opcode, this.map(label));
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        super.visitTableSwitchInsn(min, max, this.map(dflt), this.map(labels));
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        super.visitLookupSwitchInsn(this.map(dflt), keys, this.map(labels));
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+        super.visitTryCatchBlock(this.map(start), this.map(end), this.map(handler), type);
+    }
+
+    @Override
+    public void visitLineNumber(int line, Label start) {
+        super.visitLineNumber(line, this.map(start));
+    }
+
+    @Override
+    public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
+        var mapped = this.map(index);
+        // entries of aliased slots are already described by the target
+        if (mapped >= this.ownedStart) {
+            super.visitLocalVariable(name, descriptor, signature, this.map(start), this.map(end), mapped);
+        }
+    }
+
+    @Override
+    public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+        List<Object> handlerStack;
+        switch (type) {
+            case Opcodes.F_NEW, Opcodes.F_FULL -> {
+                this.handlerLocals = new ArrayList<>(Arrays.asList(local).subList(0, numLocal));
+                handlerStack = Arrays.asList(stack).subList(0, numStack);
+            }
+            case Opcodes.F_SAME -> handlerStack = List.of();
+            case Opcodes.F_SAME1 -> handlerStack = List.of(stack[0]);
+            case Opcodes.F_APPEND -> {
+                this.handlerLocals.addAll(Arrays.asList(local).subList(0, numLocal));
+                handlerStack = List.of();
+            }
+            case Opcodes.F_CHOP -> {
+                this.handlerLocals.subList(this.handlerLocals.size() - numLocal, this.handlerLocals.size()).clear();
+                handlerStack = List.of();
+            }
+            default -> throw new IllegalArgumentException("Unknown frame type " + type);
+        }
+        var mergedLocals = new ArrayList<>(this.locals);
+        for (int i = 0, slot = 0; i < this.handlerLocals.size(); i++) {
+            var item = this.mapFrameItem(this.handlerLocals.get(i));
+            var size = item == Opcodes.LONG || item == Opcodes.DOUBLE ? 2 : 1;
+            var index = this.map(slot);
+            if (index >= this.ownedStart) {
+                while (mergedLocals.size() < index + size) {
+                    mergedLocals.add(Opcodes.TOP);
+                }
+                mergedLocals.set(index, item);
+                if (size == 2) {
+                    mergedLocals.set(index + 1, Opcodes.TOP);
+                }
+            }
+            slot += size;
+        }
+        var mergedStack = new ArrayList<>(this.stack);
+        for (var item : handlerStack) {
+            mergedStack.add(this.mapFrameItem(item));
+        }
+        var compact = compact(mergedLocals);
+        super.visitFrame(this.frameType, compact.size(), compact.toArray(), mergedStack.size(), mergedStack.toArray());
+    }
+
+    /**
+     * @return {@code locals} with the second slot of long and double values removed, as stored in frames
+     */
+    static List<Object> compact(List<Object> locals) {
+        var compact = new ArrayList<>(locals.size());
+        for (int i = 0; i < locals.size(); i++) {
+            var item = locals.get(i);
+            compact.add(item);
+            if (item == Opcodes.LONG || item == Opcodes.DOUBLE) {
+                i++;
+            }
+        }
+        return compact;
+    }
+
+    /**
+     * @return {@code locals} as stored in frames with the second slot of long and double values added
+     */
+    static List<Object> expand(List<Object> locals) {
+        var expanded = new ArrayList<>(locals.size());
+        for (var item : locals) {
+            expanded.add(item);
+            if (item == Opcodes.LONG || item == Opcodes.DOUBLE) {
+                expanded.add(Opcodes.TOP);
+            }
+        }
+        return expanded;
+    }
+}
@@ -0,0 +1,193 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.MethodNode;
+import org.spongepowered.asm.service.MixinService;
+import org.spongepowered.asm.util.Annotations;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Handler layouts of a mixin class precomputed by {@code EjectProvider}, stored in
+ * {@code META-INF/mixintools/handlers/<mixin class>.properties}.
+ * <p>
+ * Handlers missing from the index are derived from their bytecode. Disabled by {@code mixintools.handlerIndex=false}.
+ */
+public final class HandlerIndex {
+
+    public static final String DIRECTORY = "META-INF/mixintools/handlers/";
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("mixintools.handlerIndex", "true"));
+    private static final String LOCAL_DESC = Type.getDescriptor(io.izzel.arclight.mixin.Local.class);
+    private static final Map<String, Map<String, Handler>> LOADED = new ConcurrentHashMap<>();
+    // mixin unique handler name, e.g. decorate$zza000$handler
+    private static final Pattern UNIQUE_NAME = Pattern.compile("^[^$]+\\$[a-z]{3}\\d{3}\\$");
+
+    private HandlerIndex() {
+    }
+
+    /**
+     * {@code @Local} of a handler parameter, {@code ordinal} and {@code allocate} are null unless specified.
+     */
+    public record Local(Integer ordinal, String allocate) {
+    }
+
+    /**
+     * @param slots   local slot of each parameter relative to the first one, followed by the size of all parameters
+     * @param locals  {@code @Local} of each parameter or null
+     * @param used    parameters referenced by the handler body, null if unknown
+     * @param markers {@code DecorationOps} methods called by the handler in source order, null if unknown
+     */
+    public record Handler(int[] slots, Local[] locals, BitSet used, List<String> markers) {
+
+        boolean usesCodeStructure() {
+            for (var marker : this.markers) {
+                if (marker.startsWith("jumpTo")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return indexed layout of {@code handler} declared in {@code mixin}, or one derived from its bytecode
+     */
+    static Handler find(String mixin, MethodNode handler) {
+        if (ENABLED) {
+            var handlers = LOADED.computeIfAbsent(mixin, HandlerIndex::load);
+            var indexed = handlers.get(originalName(handler.name) + handler.desc);
+            // the class may be remapped after it was compiled
+            if (indexed != null && indexed.locals().length == Type.getArgumentTypes(handler.desc).length) {
+                return indexed;
+            }
+        }
+        return of(handler);
+    }
+
+    /**
+     * @return name of a merged handler without the mixin unique prefix
+     */
+    public static String originalName(String name) {
+        return UNIQUE_NAME.matcher(name).replaceFirst("");
+    }
+
+    static Handler of(MethodNode handler) {
+        var args = Type.getArgumentTypes(handler.desc);
+        var slots = new int[args.length + 1];
+        var locals = new Local[args.length];
+        for (int i = 0; i < args.length; i++) {
+            slots[i + 1] = slots[i] + args[i].getSize();
+            if (handler.invisibleAnnotableParameterCount > i && handler.invisibleParameterAnnotations != null
+                && handler.invisibleParameterAnnotations[i] != null) {
+                for (var annotation : handler.invisibleParameterAnnotations[i]) {
+                    if (annotation.desc.equals(LOCAL_DESC)) {
+                        locals[i] = new Local(Annotations.getValue(annotation, "ordinal"), Annotations.getValue(annotation, "allocate"));
+                    }
+                }
+            }
+        }
+        return new Handler(slots, locals, null, null);
+    }
+
+    private static Map<String, Handler> load(String mixin) {
+        try (var stream = MixinService.getService().getResourceAsStream(DIRECTORY + mixin + ".properties")) {
+            if (stream == null) {
+                return Map.of();
+            }
+            return read(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            return Map.of();
+        }
+    }
+
+    static Map<String, Handler> read(Reader reader) throws IOException {
+        var properties = new Properties();
+        properties.load(reader);
+        var handlers = new HashMap<String, Handler>();
+        for (var key : properties.stringPropertyNames()) {
+            // handler keys are a name and a descriptor, neither contains a dot
+            if (key.indexOf('.') >= 0) {
+                continue;
+            }
+            var slots = Arrays.stream(properties.getProperty(key + ".slots").split(",")).mapToInt(Integer::parseInt).toArray();
+            var locals = new Local[slots.length - 1];
+            for (int i = 0; i < locals.length; i++) {
+                var local = properties.getProperty(key + ".local." + i);
+                if (local != null) {
+                    locals[i] = local.startsWith("ordinal:")
+                        ? new Local(Integer.parseInt(local.substring(8)), null)
+                        : new Local(null, local.substring(9));
+                }
+            }
+            BitSet used = null;
+            var usedValue = properties.getProperty(key + ".used");
+            if (usedValue != null) {
+                used = new BitSet();
+                for (var index : usedValue.split(",")) {
+                    if (!index.isEmpty()) {
+                        used.set(Integer.parseInt(index));
+                    }
+                }
+            }
+            var markersValue = properties.getProperty(key + ".markers");
+            var markers = markersValue == null ? null : markersValue.isEmpty() ? List.<String>of() : List.of(markersValue.split(","));
+            handlers.put(key, new Handler(slots, locals, used, markers));
+        }
+        return handlers;
+    }
+
+    /**
+     * Write {@code handlers} keyed by name and descriptor, the output only depends on its content.
+     */
+    public static void write(Map<String, Handler> handlers, Writer writer) throws IOException {
+        var properties = new Properties();
+        for (var entry : handlers.entrySet()) {
+            var key = entry.getKey();
+            var handler = entry.getValue();
+            properties.setProperty(key, "");
+            properties.setProperty(key + ".slots", Arrays.stream(handler.slots()).mapToObj(String::valueOf).collect(Collectors.joining(",")));
+            for (int i = 0; i < handler.locals().length; i++) {
+                var local = handler.locals()[i];
+                if (local != null) {
+                    properties.setProperty(key + ".local." + i,
+                        local.ordinal() != null ? "ordinal:" + local.ordinal() : "allocate:" + local.allocate());
+                }
+            }
+            if (handler.used() != null) {
+                properties.setProperty(key + ".used", handler.used().stream().mapToObj(String::valueOf).collect(Collectors.joining(",")));
+            }
+            if (handler.markers() != null) {
+                properties.setProperty(key + ".markers", String.join(",", handler.markers()));
+            }
+        }
+        var buffer = new StringWriter();
+        properties.store(buffer, null);
+        var lines = new ArrayList<String>();
+        for (var line : buffer.toString().split("\\R")) {
+            // drop the timestamp so unchanged handlers do not invalidate build caches
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+        lines.sort(null);
+        for (var line : lines) {
+            writer.write(line);
+            writer.write('\n');
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.spongepowered.asm.mixin.injection.struct.Target;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Code inserted into target methods in this run, by class. Regions are bounded by labels, later injections around them
+ * do not move the bounds. Classes without regions were not touched by decorations or ejections.
+ */
+public final class InjectedRegions {
+
+    private static final Map<ClassNode, Map<MethodNode, List<Region>>> REGIONS = new WeakHashMap<>();
+
+    private InjectedRegions() {
+    }
+
+    /**
+     * @param begin first node of the region
+     * @param end   node following the region
+     */
+    public record Region(LabelNode begin, LabelNode end) {
+    }
+
+    /**
+     * Record the nodes between {@code prev} and {@code next}, exclusive, as inserted. Must be called before
+     * the cached analyses of the target are updated for the region.
+     */
+    static void mark(Target target, AbstractInsnNode prev, AbstractInsnNode next) {
+        var begin = new LabelNode();
+        var end = new LabelNode();
+        if (prev == null) {
+            target.insns.insert(begin);
+        } else {
+            target.insns.insert(prev, begin);
+        }
+        if (next == null) {
+            target.insns.add(end);
+        } else {
+            target.insns.insertBefore(next, end);
+        }
+        synchronized (REGIONS) {
+            REGIONS.computeIfAbsent(target.classNode, k -> new LinkedHashMap<>())
+                .computeIfAbsent(target.method, k -> new ArrayList<>()).add(new Region(begin, end));
+        }
+    }
+
+    public static boolean touched(ClassNode classNode) {
+        synchronized (REGIONS) {
+            return REGIONS.containsKey(classNode);
+        }
+    }
+
+    /**
+     * @return regions inserted into the methods of {@code classNode} since the last call, in insertion order
+     */
+    public static Map<MethodNode, List<Region>> take(ClassNode classNode) {
+        synchronized (REGIONS) {
+            var regions = REGIONS.remove(classNode);
+            return regions == null ? Map.of() : regions;
+        }
+    }
+}
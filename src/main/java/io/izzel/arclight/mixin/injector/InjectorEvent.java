@@ -0,0 +1,71 @@
+package io.izzel.arclight.mixin.injector;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.objectweb.asm.tree.MethodNode;
+import org.spongepowered.asm.mixin.injection.struct.InjectionInfo;
+import org.spongepowered.asm.mixin.injection.struct.Target;
+
+/**
+ * Flight recorder event for one phase of an injector, fields are only filled when the event is enabled.
+ */
+@Name("io.izzel.arclight.mixin.InjectorPhase")
+@Label("Injector Phase")
+@Description("A phase of @Decorate or @Eject applied to a target method")
+@Category({"Mixin Tools"})
+@StackTrace(false)
+public class InjectorEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Mixin")
+    String mixin;
+
+    @Label("Handler")
+    String handler;
+
+    @Label("Target Class")
+    String targetClass;
+
+    @Label("Target Method")
+    String targetMethod;
+
+    @Label("Instructions Before")
+    int insnsBefore;
+
+    @Label("Instructions After")
+    int insnsAfter;
+
+    static InjectorEvent begin(String phase, InjectionInfo info, MethodNode handler, Target target) {
+        var event = new InjectorEvent();
+        if (event.isEnabled()) {
+            event.phase = phase;
+            event.mixin = info.getMixin().getClassName();
+            event.handler = handler.name + handler.desc;
+            if (target != null) {
+                event.targetClass = target.classNode.name;
+                event.targetMethod = target.method.name + target.method.desc;
+                event.insnsBefore = target.insns.size();
+            } else {
+                event.targetClass = info.getClassNode().name;
+            }
+            event.begin();
+        }
+        return event;
+    }
+
+    void finish(Target target) {
+        if (this.isEnabled()) {
+            this.end();
+            if (this.shouldCommit()) {
+                this.insnsAfter = target == null ? 0 : target.insns.size();
+                this.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Order of the instructions in a target method. Keys are spaced apart, so instructions inserted or moved between
+ * two known instructions take keys in the gap instead of renumbering the whole method like {@link InsnList#indexOf}.
+ */
+public class InsnPositions {
+
+    private static final long GAP = 1L << 20;
+
+    private final InsnList insns;
+    private final Map<AbstractInsnNode, Long> keys = new IdentityHashMap<>();
+    private int size = -1;
+
+    InsnPositions(InsnList insns) {
+        this.insns = insns;
+    }
+
+    public long position(AbstractInsnNode insn) {
+        if (this.size != this.insns.size()) {
+            this.renumber();
+        }
+        var key = this.keys.get(insn);
+        if (key == null || !this.isOrdered(insn, key)) {
+            this.renumber();
+            key = this.keys.get(insn);
+            if (key == null) {
+                throw new IllegalArgumentException("Instruction not in method: " + insn);
+            }
+        }
+        return key;
+    }
+
+    public int compare(AbstractInsnNode a, AbstractInsnNode b) {
+        return Long.compare(this.position(a), this.position(b));
+    }
+
+    /**
+     * Number instructions inserted or moved between {@code prev} and {@code next}, both exclusive.
+     */
+    public void update(AbstractInsnNode prev, AbstractInsnNode next) {
+        if (this.size < 0) {
+            return;
+        }
+        if (prev != null && !this.keys.containsKey(prev) || next != null && !this.keys.containsKey(next)) {
+            this.size = -1;
+            return;
+        }
+        var low = prev == null ? 0L : this.keys.get(prev);
+        var count = 0;
+        for (var insn = prev == null ? this.insns.getFirst() : prev.getNext(); insn != next; insn = insn.getNext()) {
+            count++;
+        }
+        var high = next == null ? low + (count + 1) * GAP : this.keys.get(next);
+        if (high - low <= count) {
+            this.size = -1;
+            return;
+        }
+        var step = (high - low) / (count + 1);
+        var key = low;
+        for (var insn = prev == null ? this.insns.getFirst() : prev.getNext(); insn != next; insn = insn.getNext()) {
+            key += step;
+            this.keys.put(insn, key);
+        }
+        this.size = this.insns.size();
+    }
+
+    // edits made by other transformers break the order with a neighbour
+    private boolean isOrdered(AbstractInsnNode insn, long key) {
+        var prev = insn.getPrevious() == null ? null : this.keys.get(insn.getPrevious());
+        var next = insn.getNext() == null ? null : this.keys.get(insn.getNext());
+        return (prev == null || prev < key) && (next == null || key < next);
+    }
+
+    private void renumber() {
+        this.keys.clear();
+        var key = 0L;
+        for (var insn = this.insns.getFirst(); insn != null; insn = insn.getNext()) {
+            key += GAP;
+            this.keys.put(insn, key);
+        }
+        this.size = this.insns.size();
+    }
+}
@@ -0,0 +1,104 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.spongepowered.asm.util.Locals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Locals visible at instructions of a target method. Snapshots are taken on a copy of the method made when the
+ * table is created, so injections applied afterwards neither change nor invalidate them.
+ */
+public class LocalsTable {
+
+    private final ClassNode classNode;
+    private final MethodNode method;
+    private final MethodNode original;
+    private final Map<AbstractInsnNode, AbstractInsnNode> copies = new IdentityHashMap<>();
+    private final Map<AbstractInsnNode, Snapshot> snapshots = new IdentityHashMap<>();
+
+    LocalsTable(ClassNode classNode, MethodNode method) {
+        this.classNode = classNode;
+        this.method = method;
+        this.original = this.copy(method);
+    }
+
+    public Snapshot at(AbstractInsnNode insn) {
+        var copy = this.copies.get(insn);
+        if (copy == null) {
+            // inserted by an injection after the copy was made, only visible in the live method
+            return new Snapshot(Locals.getLocalsAt(this.classNode, this.method, insn, Locals.Settings.DEFAULT));
+        }
+        return this.snapshots.computeIfAbsent(copy,
+            it -> new Snapshot(Locals.getLocalsAt(this.classNode, this.original, it, Locals.Settings.DEFAULT)));
+    }
+
+    private MethodNode copy(MethodNode method) {
+        var labels = new IdentityHashMap<LabelNode, LabelNode>();
+        for (var insn : method.instructions) {
+            if (insn instanceof LabelNode label) {
+                labels.put(label, new LabelNode());
+            }
+        }
+        var copy = new MethodNode(method.access, method.name, method.desc, method.signature, null);
+        for (var insn : method.instructions) {
+            var cloned = insn.clone(labels);
+            copy.instructions.add(cloned);
+            this.copies.put(insn, cloned);
+        }
+        if (method.localVariables != null) {
+            for (var local : method.localVariables) {
+                copy.localVariables.add(new LocalVariableNode(local.name, local.desc, local.signature,
+                    labels.get(local.start), labels.get(local.end), local.index));
+            }
+        }
+        if (method.tryCatchBlocks != null) {
+            for (var block : method.tryCatchBlocks) {
+                copy.tryCatchBlocks.add(new TryCatchBlockNode(labels.get(block.start), labels.get(block.end),
+                    labels.get(block.handler), block.type));
+            }
+        }
+        copy.maxLocals = method.maxLocals;
+        copy.maxStack = method.maxStack;
+        return copy;
+    }
+
+    public static final class Snapshot {
+
+        private final LocalVariableNode[] locals;
+        private Map<String, List<LocalVariableNode>> byType;
+
+        Snapshot(LocalVariableNode[] locals) {
+            this.locals = locals;
+        }
+
+        public LocalVariableNode[] locals() {
+            return this.locals;
+        }
+
+        /**
+         * @return locals with descriptor {@code desc} in slot order
+         */
+        public List<LocalVariableNode> ofType(String desc) {
+            if (this.byType == null) {
+                var byType = new HashMap<String, List<LocalVariableNode>>();
+                for (var local : this.locals) {
+                    if (local != null) {
+                        byType.computeIfAbsent(local.desc, k -> new ArrayList<>(2)).add(local);
+                    }
+                }
+                this.byType = byType;
+            }
+            return this.byType.getOrDefault(desc, List.of());
+        }
+    }
+}
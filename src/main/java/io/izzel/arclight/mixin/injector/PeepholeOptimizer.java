@@ -0,0 +1,310 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes spill and reload sequences left by injectors, jumps to the next instruction and casts to the type
+ * already on the stack. Only code in {@link InjectedRegions} is rewritten. Frames are kept valid, slots no longer
+ * written are dropped from frames they are dead at; local variables of the original code and max locals are kept.
+ */
+public final class PeepholeOptimizer {
+
+    private static final Object WIDE_HALF = new Object();
+
+    private PeepholeOptimizer() {
+    }
+
+    /**
+     * @return true if {@code method} was changed
+     */
+    public static boolean optimize(MethodNode method, List<InjectedRegions.Region> regions) {
+        if (!canOptimize(method)) {
+            return false;
+        }
+        var injected = injected(method, regions);
+        if (injected.isEmpty()) {
+            return false;
+        }
+        var removedSlots = new BitSet();
+        var changed = false;
+        while (removeSpills(method, injected, removedSlots)) {
+            changed = true;
+        }
+        if (!removedSlots.isEmpty()) {
+            clearDeadSlots(method, injected, removedSlots);
+        }
+        changed |= removeCasts(method.instructions, injected);
+        changed |= removeJumps(method.instructions, injected);
+        if (changed) {
+            method.tryCatchBlocks.removeIf(it -> !hasCode(it.start, it.end));
+        }
+        return changed;
+    }
+
+    /**
+     * @return nodes inside {@code regions}, regions whose bounds were removed from {@code method} are skipped
+     */
+    private static Set<AbstractInsnNode> injected(MethodNode method, List<InjectedRegions.Region> regions) {
+        Set<AbstractInsnNode> present = Collections.newSetFromMap(new IdentityHashMap<>());
+        present.addAll(Arrays.asList(method.instructions.toArray()));
+        Set<AbstractInsnNode> injected = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (var region : regions) {
+            if (!present.contains(region.begin()) || !present.contains(region.end())) {
+                continue;
+            }
+            for (var insn = region.begin().getNext(); insn != null && insn != region.end(); insn = insn.getNext()) {
+                injected.add(insn);
+            }
+        }
+        return injected;
+    }
+
+    // compressed frames cannot be edited in place, subroutines make slots live everywhere
+    private static boolean canOptimize(MethodNode method) {
+        for (var insn : method.instructions) {
+            if (insn instanceof FrameNode frame && frame.type != Opcodes.F_NEW && frame.type != Opcodes.F_FULL
+                || insn.getOpcode() == Opcodes.JSR || insn.getOpcode() == Opcodes.RET) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean removeSpills(MethodNode method, Set<AbstractInsnNode> injected, BitSet removedSlots) {
+        var insns = method.instructions.toArray();
+        var successors = successors(method, insns);
+        var liveIn = liveness(insns, successors);
+        var removed = false;
+        for (int i = 0; i + 1 < insns.length; i++) {
+            if (insns[i] instanceof VarInsnNode store && store.getOpcode() >= Opcodes.ISTORE && store.getOpcode() <= Opcodes.ASTORE
+                && insns[i + 1] instanceof VarInsnNode load && load.var == store.var
+                && injected.contains(store) && injected.contains(load)
+                && load.getOpcode() == store.getOpcode() - Opcodes.ISTORE + Opcodes.ILOAD
+                && !liveOut(successors, liveIn, i + 1).get(store.var)) {
+                method.instructions.remove(store);
+                method.instructions.remove(load);
+                removedSlots.set(store.var);
+                removed = true;
+                i++;
+            }
+        }
+        return removed;
+    }
+
+    // frames of the original code are edited too, a merge point after a region may still declare a removed slot
+    private static void clearDeadSlots(MethodNode method, Set<AbstractInsnNode> injected, BitSet slots) {
+        var insns = method.instructions.toArray();
+        var liveIn = liveness(insns, successors(method, insns));
+        for (int i = 0; i < insns.length; i++) {
+            if (!(insns[i] instanceof FrameNode frame) || frame.local == null) {
+                continue;
+            }
+            var expanded = new ArrayList<>();
+            for (var local : frame.local) {
+                expanded.add(local);
+                if (local == Opcodes.LONG || local == Opcodes.DOUBLE) {
+                    expanded.add(WIDE_HALF);
+                }
+            }
+            var modified = false;
+            for (var slot = slots.nextSetBit(0); slot >= 0 && slot < expanded.size(); slot = slots.nextSetBit(slot + 1)) {
+                var local = expanded.get(slot);
+                if (local == Opcodes.TOP || local == WIDE_HALF || local == Opcodes.UNINITIALIZED_THIS || liveIn[i].get(slot)) {
+                    continue;
+                }
+                expanded.set(slot, Opcodes.TOP);
+                if (local == Opcodes.LONG || local == Opcodes.DOUBLE) {
+                    expanded.set(slot + 1, Opcodes.TOP);
+                }
+                modified = true;
+            }
+            if (!modified) {
+                continue;
+            }
+            while (!expanded.isEmpty() && expanded.get(expanded.size() - 1) == Opcodes.TOP) {
+                expanded.remove(expanded.size() - 1);
+            }
+            expanded.removeIf(it -> it == WIDE_HALF);
+            frame.local = expanded;
+        }
+        if (method.localVariables != null) {
+            method.localVariables.removeIf(lvn -> injected.contains(lvn.start) && slots.get(lvn.index)
+                && !accessed(lvn.start, lvn.end, lvn.index));
+        }
+    }
+
+    private static boolean removeCasts(InsnList insns, Set<AbstractInsnNode> injected) {
+        var removed = false;
+        for (var insn = insns.getFirst(); insn != null; ) {
+            var next = insn.getNext();
+            if (insn.getOpcode() == Opcodes.CHECKCAST && injected.contains(insn)
+                && ((TypeInsnNode) insn).desc.equals(producedType(insn.getPrevious()))) {
+                insns.remove(insn);
+                removed = true;
+            }
+            insn = next;
+        }
+        return removed;
+    }
+
+    /**
+     * @return internal name of the reference {@code insn} pushes, null if unknown
+     */
+    private static String producedType(AbstractInsnNode insn) {
+        Type type = null;
+        if (insn instanceof MethodInsnNode mn) {
+            type = Type.getReturnType(mn.desc);
+        } else if (insn instanceof FieldInsnNode fn && (fn.getOpcode() == Opcodes.GETFIELD || fn.getOpcode() == Opcodes.GETSTATIC)) {
+            type = Type.getType(fn.desc);
+        } else if (insn instanceof TypeInsnNode tn && tn.getOpcode() == Opcodes.CHECKCAST) {
+            return tn.desc;
+        } else if (insn instanceof TypeInsnNode tn && tn.getOpcode() == Opcodes.ANEWARRAY) {
+            type = Type.getType("[" + Type.getObjectType(tn.desc).getDescriptor());
+        } else if (insn instanceof LdcInsnNode ldc) {
+            if (ldc.cst instanceof String) {
+                return "java/lang/String";
+            } else if (ldc.cst instanceof Type t && t.getSort() != Type.METHOD) {
+                return "java/lang/Class";
+            }
+        }
+        return type != null && (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY) ? type.getInternalName() : null;
+    }
+
+    private static boolean removeJumps(InsnList insns, Set<AbstractInsnNode> injected) {
+        var removed = false;
+        for (var insn = insns.getFirst(); insn != null; ) {
+            var next = insn.getNext();
+            if (insn.getOpcode() == Opcodes.GOTO && injected.contains(insn)) {
+                var target = nextCode(((JumpInsnNode) insn).label);
+                if (target != null && target == nextCode(insn)) {
+                    insns.remove(insn);
+                    removed = true;
+                }
+            }
+            insn = next;
+        }
+        return removed;
+    }
+
+    private static AbstractInsnNode nextCode(AbstractInsnNode insn) {
+        var next = insn.getNext();
+        while (next != null && next.getOpcode() < 0) {
+            next = next.getNext();
+        }
+        return next;
+    }
+
+    private static BitSet[] liveness(AbstractInsnNode[] insns, int[][] successors) {
+        var liveIn = new BitSet[insns.length];
+        for (int i = 0; i < insns.length; i++) {
+            liveIn[i] = new BitSet();
+        }
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = insns.length - 1; i >= 0; i--) {
+                var live = liveOut(successors, liveIn, i);
+                var insn = insns[i];
+                if (insn instanceof VarInsnNode varInsn) {
+                    var size = varInsn.getOpcode() == Opcodes.LLOAD || varInsn.getOpcode() == Opcodes.DLOAD
+                        || varInsn.getOpcode() == Opcodes.LSTORE || varInsn.getOpcode() == Opcodes.DSTORE ? 2 : 1;
+                    if (varInsn.getOpcode() >= Opcodes.ISTORE) {
+                        live.clear(varInsn.var, varInsn.var + size);
+                    } else {
+                        live.set(varInsn.var, varInsn.var + size);
+                    }
+                } else if (insn instanceof IincInsnNode iinc) {
+                    live.set(iinc.var);
+                }
+                if (!live.equals(liveIn[i])) {
+                    liveIn[i] = live;
+                    changed = true;
+                }
+            }
+        }
+        return liveIn;
+    }
+
+    private static BitSet liveOut(int[][] successors, BitSet[] liveIn, int i) {
+        var live = new BitSet();
+        for (var successor : successors[i]) {
+            live.or(liveIn[successor]);
+        }
+        return live;
+    }
+
+    private static int[][] successors(MethodNode method, AbstractInsnNode[] insns) {
+        var list = method.instructions;
+        var handlers = new ArrayList<int[]>(); // start, end, handler
+        for (var tryCatch : method.tryCatchBlocks) {
+            handlers.add(new int[]{list.indexOf(tryCatch.start), list.indexOf(tryCatch.end), list.indexOf(tryCatch.handler)});
+        }
+        var result = new int[insns.length][];
+        for (int i = 0; i < insns.length; i++) {
+            var insn = insns[i];
+            var opcode = insn.getOpcode();
+            var successors = new ArrayList<Integer>(2);
+            if (insn instanceof JumpInsnNode jump) {
+                successors.add(list.indexOf(jump.label));
+            } else if (insn instanceof TableSwitchInsnNode ts) {
+                ts.labels.forEach(it -> successors.add(list.indexOf(it)));
+                successors.add(list.indexOf(ts.dflt));
+            } else if (insn instanceof LookupSwitchInsnNode ls) {
+                ls.labels.forEach(it -> successors.add(list.indexOf(it)));
+                successors.add(list.indexOf(ls.dflt));
+            }
+            if (i + 1 < insns.length && opcode != Opcodes.GOTO && opcode != Opcodes.ATHROW && opcode != Opcodes.TABLESWITCH
+                && opcode != Opcodes.LOOKUPSWITCH && (opcode < Opcodes.IRETURN || opcode > Opcodes.RETURN)) {
+                successors.add(i + 1);
+            }
+            for (var handler : handlers) {
+                if (handler[0] <= i && i < handler[1]) {
+                    successors.add(handler[2]);
+                }
+            }
+            result[i] = successors.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return result;
+    }
+
+    private static boolean accessed(LabelNode start, LabelNode end, int slot) {
+        for (var insn = start.getNext(); insn != null && insn != end; insn = insn.getNext()) {
+            if (insn instanceof VarInsnNode varInsn && varInsn.var == slot || insn instanceof IincInsnNode iinc && iinc.var == slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasCode(LabelNode start, LabelNode end) {
+        for (var insn = start.getNext(); insn != null && insn != end; insn = insn.getNext()) {
+            if (insn.getOpcode() >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
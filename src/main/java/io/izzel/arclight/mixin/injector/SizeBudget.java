@@ -0,0 +1,132 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.spongepowered.asm.logging.ILogger;
+import org.spongepowered.asm.mixin.injection.struct.InjectionInfo;
+import org.spongepowered.asm.mixin.injection.struct.Target;
+import org.spongepowered.asm.mixin.injection.throwables.InvalidInjectionException;
+import org.spongepowered.asm.service.MixinService;
+
+import java.util.Locale;
+
+/**
+ * Bytecode size limits of the JIT that inlining a handler may cross.
+ * <p>
+ * Configured by {@code mixintools.sizeBudget.policy} ({@code ignore}, {@code warn}, {@code fail} or {@code outline}),
+ * {@code mixintools.sizeBudget.inlineLimit} (FreqInlineSize, 325) and {@code mixintools.sizeBudget.hugeLimit}
+ * (HugeMethodLimit, 8000).
+ */
+public final class SizeBudget {
+
+    public enum Policy {
+        IGNORE, WARN, FAIL, OUTLINE
+    }
+
+    public static final Policy POLICY = policy(System.getProperty("mixintools.sizeBudget.policy", "warn"));
+    public static final int INLINE_LIMIT = Integer.getInteger("mixintools.sizeBudget.inlineLimit", 325);
+    public static final int HUGE_LIMIT = Integer.getInteger("mixintools.sizeBudget.hugeLimit", 8000);
+
+    private SizeBudget() {
+    }
+
+    private static Policy policy(String value) {
+        try {
+            return Policy.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            MixinService.getService().getLogger("mixin").warn("Unknown mixintools.sizeBudget.policy {}, using warn", value);
+            return Policy.WARN;
+        }
+    }
+
+    /**
+     * @return the limit crossed by adding {@code added} bytes to {@code target}, or null
+     */
+    static String exceeded(Target target, int added) {
+        if (POLICY == Policy.IGNORE) {
+            return null;
+        }
+        var before = TargetAnalysis.of(target).codeSize();
+        return exceeded(before, before + added);
+    }
+
+    /**
+     * @return the limit crossed by growing a method from {@code before} to {@code after} bytes, or null
+     */
+    public static String exceeded(int before, int after) {
+        if (POLICY == Policy.IGNORE) {
+            return null;
+        } else if (before <= HUGE_LIMIT && after > HUGE_LIMIT) {
+            return "HugeMethodLimit (" + HUGE_LIMIT + " bytes), the method will not be compiled";
+        } else if (before <= INLINE_LIMIT && after > INLINE_LIMIT) {
+            return "FreqInlineSize (" + INLINE_LIMIT + " bytes), the method will not be inlined by hot callers";
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Fail the injection under {@link Policy#FAIL}, or warn, if {@code exceeded} is not null.
+     */
+    static void report(InjectionInfo info, Target target, String exceeded, ILogger logger) {
+        if (exceeded == null) {
+            return;
+        }
+        var message = String.format("%s pushes %s past %s", info, target, exceeded);
+        if (POLICY == Policy.FAIL) {
+            throw new InvalidInjectionException(info, message);
+        }
+        logger.warn(message);
+    }
+
+    /**
+     * @return estimated code length of {@code insns}, switch padding and wide jumps are not counted
+     */
+    public static int size(InsnList insns) {
+        return size(insns.getFirst(), null);
+    }
+
+    /**
+     * @return estimated code length from {@code first} to {@code end}, exclusive
+     */
+    static int size(AbstractInsnNode first, AbstractInsnNode end) {
+        var size = 0;
+        for (var insn = first; insn != end; insn = insn.getNext()) {
+            size += size(insn);
+        }
+        return size;
+    }
+
+    private static int size(AbstractInsnNode insn) {
+        return switch (insn.getType()) {
+            case AbstractInsnNode.INSN -> 1;
+            case AbstractInsnNode.INT_INSN -> ((IntInsnNode) insn).getOpcode() == Opcodes.SIPUSH ? 3 : 2;
+            case AbstractInsnNode.VAR_INSN -> {
+                var var = ((VarInsnNode) insn).var;
+                yield var < 4 && insn.getOpcode() != Opcodes.RET ? 1 : var < 256 ? 2 : 4;
+            }
+            case AbstractInsnNode.IINC_INSN -> {
+                var iinc = (IincInsnNode) insn;
+                yield iinc.var < 256 && iinc.incr >= Byte.MIN_VALUE && iinc.incr <= Byte.MAX_VALUE ? 3 : 6;
+            }
+            case AbstractInsnNode.LDC_INSN -> {
+                var cst = ((LdcInsnNode) insn).cst;
+                yield cst instanceof Long || cst instanceof Double ? 3 : 2;
+            }
+            case AbstractInsnNode.TYPE_INSN, AbstractInsnNode.FIELD_INSN, AbstractInsnNode.JUMP_INSN -> 3;
+            case AbstractInsnNode.METHOD_INSN -> insn.getOpcode() == Opcodes.INVOKEINTERFACE ? 5 : 3;
+            case AbstractInsnNode.INVOKE_DYNAMIC_INSN -> 5;
+            case AbstractInsnNode.MULTIANEWARRAY_INSN -> 4;
+            case AbstractInsnNode.TABLESWITCH_INSN -> 13 + 4 * ((TableSwitchInsnNode) insn).labels.size();
+            case AbstractInsnNode.LOOKUPSWITCH_INSN -> 9 + 8 * ((LookupSwitchInsnNode) insn).labels.size();
+            default -> 0;
+        };
+    }
+}
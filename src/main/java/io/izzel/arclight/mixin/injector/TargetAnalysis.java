@@ -0,0 +1,100 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.spongepowered.asm.mixin.injection.struct.Target;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Analysis results of a target method, shared by all injectors applied to the same {@link Target}.
+ */
+public class TargetAnalysis {
+
+    private static final Map<Target, TargetAnalysis> ANALYSES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final ClassNode classNode;
+    private final MethodNode method;
+    private FrameSolver frames;
+    private ControlFlowGraph controlFlow;
+    private LocalsTable locals;
+    private InsnPositions positions;
+    private int codeSize = -1;
+    private int codeSizeInsns;
+
+    private TargetAnalysis(ClassNode classNode, MethodNode method) {
+        this.classNode = classNode;
+        this.method = method;
+    }
+
+    public static TargetAnalysis of(Target target) {
+        // values must not reference the target, or it is never collected
+        return ANALYSES.computeIfAbsent(target, it -> new TargetAnalysis(it.classNode, it.method));
+    }
+
+    public FrameSolver frames() {
+        if (this.frames == null) {
+            this.frames = new FrameSolver(this.classNode.name, this.method);
+        }
+        return this.frames;
+    }
+
+    public ControlFlowGraph controlFlow() {
+        if (this.controlFlow == null || this.controlFlow.isStale()) {
+            this.controlFlow = new ControlFlowGraph(this.method);
+        }
+        return this.controlFlow;
+    }
+
+    public LocalsTable locals() {
+        if (this.locals == null) {
+            this.locals = new LocalsTable(this.classNode, this.method);
+        }
+        return this.locals;
+    }
+
+    public InsnPositions positions() {
+        if (this.positions == null) {
+            this.positions = new InsnPositions(this.method.instructions);
+        }
+        return this.positions;
+    }
+
+    /**
+     * @return estimated code length of the target, counted again only if other injectors changed it
+     */
+    public int codeSize() {
+        if (this.codeSize < 0 || this.codeSizeInsns != this.method.instructions.size()) {
+            this.codeSize = SizeBudget.size(this.method.instructions);
+            this.codeSizeInsns = this.method.instructions.size();
+        }
+        return this.codeSize;
+    }
+
+    /**
+     * @return size of the nodes between {@code prev} and {@code next} before they are replaced, or -1 if the code
+     * size is not counted
+     */
+    int regionSize(AbstractInsnNode prev, AbstractInsnNode next) {
+        if (this.codeSize < 0 || this.codeSizeInsns != this.method.instructions.size()) {
+            return -1;
+        }
+        return SizeBudget.size(prev == null ? this.method.instructions.getFirst() : prev.getNext(), next);
+    }
+
+    /**
+     * Add the growth of the region between {@code prev} and {@code next} to the counted code size.
+     *
+     * @param sizeBefore the {@link #regionSize} before the region was replaced
+     */
+    void updateCodeSize(AbstractInsnNode prev, AbstractInsnNode next, int sizeBefore) {
+        if (sizeBefore >= 0) {
+            var first = prev == null ? this.method.instructions.getFirst() : prev.getNext();
+            this.codeSize += SizeBudget.size(first, next) - sizeBefore;
+            this.codeSizeInsns = this.method.instructions.size();
+        }
+    }
+}
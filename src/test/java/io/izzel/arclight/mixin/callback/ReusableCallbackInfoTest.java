@@ -0,0 +1,45 @@
+package io.izzel.arclight.mixin.callback;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReusableCallbackInfoTest {
+
+    @Test
+    void nestedAcquire() {
+        var outer = ReusableCallbackInfo.acquire();
+        var inner = ReusableCallbackInfo.acquire();
+        assertNotSame(outer, inner);
+        inner.release();
+        outer.release();
+        assertSame(outer, ReusableCallbackInfo.acquire());
+        assertSame(inner, ReusableCallbackInfo.acquire());
+        inner.release();
+        outer.release();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void releaseResets() {
+        var info = (ReusableCallbackInfo<Integer>) ReusableCallbackInfo.acquire();
+        info.setReturnValue(5);
+        info.release();
+        var again = ReusableCallbackInfo.acquire();
+        assertSame(info, again);
+        assertFalse(again.isCancelled());
+        assertEquals(0, again.getReturnValueI());
+        again.release();
+    }
+
+    @Test
+    void doubleRelease() {
+        var info = ReusableCallbackInfo.acquire();
+        info.release();
+        assertThrows(IllegalStateException.class, info::release);
+    }
+}
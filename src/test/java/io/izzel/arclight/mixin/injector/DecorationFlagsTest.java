@@ -0,0 +1,232 @@
+package io.izzel.arclight.mixin.injector;
+
+import io.izzel.arclight.mixin.DecorationOps;
+import io.izzel.arclight.mixin.cache.TransformCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static io.izzel.arclight.mixin.injector.TestMethods.count;
+import static io.izzel.arclight.mixin.injector.TestMethods.invoke;
+import static io.izzel.arclight.mixin.injector.TestMethods.method;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DecorationFlagsTest {
+
+    @AfterEach
+    void reset() {
+        DecorationFlags.setSource(null);
+    }
+
+    private static void flags(String... enabled) {
+        var properties = new Properties();
+        for (var name : enabled) {
+            properties.setProperty(name, "true");
+        }
+        DecorationFlags.setSource(properties);
+    }
+
+    private static void flag(MethodNode method, String name) {
+        method.visitLdcInsn(name);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(DecorationOps.class), "flag", "(Ljava/lang/String;)Z", true);
+    }
+
+    // if (flag("a")) return 10; else return 20;
+    private static MethodNode ifElse() {
+        var method = method("ifElse", "()I");
+        var orElse = new Label();
+        flag(method, "a");
+        method.visitJumpInsn(Opcodes.IFEQ, orElse);
+        method.visitIntInsn(Opcodes.BIPUSH, 10);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitLabel(orElse);
+        method.visitFrame(Opcodes.F_NEW, 0, new Object[0], 0, new Object[0]);
+        method.visitIntInsn(Opcodes.BIPUSH, 20);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(1, 0);
+        return method;
+    }
+
+    @Test
+    void ifElseEnabled() {
+        flags("a");
+        var method = ifElse();
+        assertTrue(DecorationFlags.prune(null, method));
+        assertEquals(10, invoke(method));
+        assertEquals(1, count(method, Opcodes.BIPUSH));
+        assertEquals(0, count(method, Opcodes.IFEQ));
+    }
+
+    @Test
+    void ifElseDisabled() {
+        flags();
+        var method = ifElse();
+        assertTrue(DecorationFlags.prune(null, method));
+        assertEquals(20, invoke(method));
+        assertEquals(1, count(method, Opcodes.BIPUSH));
+        assertEquals(0, count(method, Opcodes.GOTO));
+    }
+
+    @Test
+    void noFlags() {
+        var method = method("noFlags", "()I");
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(1, 0);
+        assertFalse(DecorationFlags.prune(null, method));
+        assertEquals(2, method.instructions.size());
+    }
+
+    // if (flag("a") && flag("b") && x > 0) return 10; return 20;
+    private static MethodNode andChain() {
+        var method = method("andChain", "(I)I");
+        var orElse = new Label();
+        flag(method, "a");
+        method.visitJumpInsn(Opcodes.IFEQ, orElse);
+        flag(method, "b");
+        method.visitJumpInsn(Opcodes.IFEQ, orElse);
+        method.visitVarInsn(Opcodes.ILOAD, 0);
+        method.visitJumpInsn(Opcodes.IFLE, orElse);
+        method.visitIntInsn(Opcodes.BIPUSH, 10);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitLabel(orElse);
+        method.visitFrame(Opcodes.F_NEW, 1, new Object[]{Opcodes.INTEGER}, 0, new Object[0]);
+        method.visitIntInsn(Opcodes.BIPUSH, 20);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitMaxs(1, 1);
+        return method;
+    }
+
+    @Test
+    void andChainEnabled() {
+        flags("a", "b");
+        var method = andChain();
+        assertTrue(DecorationFlags.prune(null, method));
+        assertEquals(10, invoke(method, 1));
+        assertEquals(20, invoke(method, 0));
+        assertEquals(1, count(method, Opcodes.ILOAD));
+        assertEquals(0, count(method, Opcodes.IFEQ));
+    }
+
+    @Test
+    void andChainLastDisabled() {
+        flags("a");
+        var method = andChain();
+        assertTrue(DecorationFlags.prune(null, method));
+        assertEquals(20, invoke(method, 1));
+        assertEquals(0, count(method, Opcodes.ILOAD));
+        assertEquals(1, count(method, Opcodes.BIPUSH));
+    }
+
+    @Test
+    void andChainFirstDisabled() {
+        flags("b");
+        var method = andChain();
+        assertTrue(DecorationFlags.prune(null, method));
+        assertEquals(20, invoke(method, 1));
+        assertEquals(0, count(method, Opcodes.ILOAD));
+        assertEquals(1, count(method, Opcodes.BIPUSH));
+    }
+
+    // int x = 0; if (flag("a")) { try { x = Integer.parseInt(s); } catch (NumberFormatException e) { x = -1; } } return x;
+    private static MethodNode tryCatch() {
+        var method = method("tryCatch", "(Ljava/lang/String;)I");
+        var first = new Label();
+        var start = new Label();
+        var end = new Label();
+        var handler = new Label();
+        var handlerStart = new Label();
+        var after = new Label();
+        var last = new Label();
+        method.visitTryCatchBlock(start, end, handler, "java/lang/NumberFormatException");
+        method.visitLabel(first);
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitVarInsn(Opcodes.ISTORE, 1);
+        flag(method, "a");
+        method.visitJumpInsn(Opcodes.IFEQ, after);
+        method.visitLabel(start);
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "parseInt", "(Ljava/lang/String;)I", false);
+        method.visitVarInsn(Opcodes.ISTORE, 1);
+        method.visitLabel(end);
+        method.visitJumpInsn(Opcodes.GOTO, after);
+        method.visitLabel(handler);
+        method.visitFrame(Opcodes.F_NEW, 2, new Object[]{"java/lang/String", Opcodes.INTEGER}, 1, new Object[]{"java/lang/NumberFormatException"});
+        method.visitVarInsn(Opcodes.ASTORE, 2);
+        method.visitLabel(handlerStart);
+        method.visitInsn(Opcodes.ICONST_M1);
+        method.visitVarInsn(Opcodes.ISTORE, 1);
+        method.visitLabel(after);
+        method.visitFrame(Opcodes.F_NEW, 2, new Object[]{"java/lang/String", Opcodes.INTEGER}, 0, new Object[0]);
+        method.visitVarInsn(Opcodes.ILOAD, 1);
+        method.visitInsn(Opcodes.IRETURN);
+        method.visitLabel(last);
+        method.visitLocalVariable("s", "Ljava/lang/String;", null, first, last, 0);
+        method.visitLocalVariable("e", "Ljava/lang/NumberFormatException;", null, handlerStart, after, 2);
+        method.visitMaxs(1, 3);
+        return method;
+    }
+
+    @Test
+    void tryCatchEnabled() {
+        flags("a");
+        var method = tryCatch();
+        assertTrue(DecorationFlags.prune(null, method));
+        assertEquals(5, invoke(method, "5"));
+        assertEquals(-1, invoke(method, "x"));
+        assertEquals(1, method.tryCatchBlocks.size());
+        assertEquals(2, method.localVariables.size());
+    }
+
+    @Test
+    void tryCatchDisabled() {
+        flags();
+        var method = tryCatch();
+        assertTrue(DecorationFlags.prune(null, method));
+        assertEquals(0, invoke(method, "5"));
+        assertTrue(method.tryCatchBlocks.isEmpty());
+        assertEquals(1, method.localVariables.size());
+        assertEquals("s", method.localVariables.get(0).name);
+        assertEquals(0, count(method, Opcodes.ASTORE));
+        assertEquals(0, count(method, Opcodes.INVOKESTATIC));
+    }
+
+    private static byte[] mixin(MethodNode... methods) {
+        var classNode = new ClassNode();
+        classNode.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, "TestMixin", null, "java/lang/Object", null);
+        classNode.methods.addAll(Arrays.asList(methods));
+        var writer = new ClassWriter(0);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+
+    @Test
+    void names() {
+        assertEquals(Set.of("a", "b"), DecorationFlags.names(mixin(ifElse(), andChain())));
+        assertEquals(Set.of(), DecorationFlags.names(mixin()));
+    }
+
+    @Test
+    void cacheKeyFollowsFlags() {
+        var original = mixin();
+        var mixins = Map.of("TestMixin", mixin(ifElse()));
+        flags();
+        var disabled = TransformCache.key(original, mixins);
+        flags("b");
+        assertTrue(Arrays.equals(disabled, TransformCache.key(original, mixins)));
+        flags("a");
+        assertFalse(Arrays.equals(disabled, TransformCache.key(original, mixins)));
+    }
+}
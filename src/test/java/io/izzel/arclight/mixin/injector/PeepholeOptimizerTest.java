@@ -0,0 +1,196 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.izzel.arclight.mixin.injector.TestMethods.count;
+import static io.izzel.arclight.mixin.injector.TestMethods.invoke;
+import static io.izzel.arclight.mixin.injector.TestMethods.method;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PeepholeOptimizerTest {
+
+    private final List<InjectedRegions.Region> regions = new ArrayList<>();
+    private LabelNode begin;
+
+    private void begin(MethodNode method) {
+        this.begin = new LabelNode();
+        method.instructions.add(this.begin);
+    }
+
+    private void end(MethodNode method) {
+        var end = new LabelNode();
+        method.instructions.add(end);
+        this.regions.add(new InjectedRegions.Region(this.begin, end));
+    }
+
+    private static void add(MethodNode method, AbstractInsnNode... insns) {
+        for (var insn : insns) {
+            method.instructions.add(insn);
+        }
+    }
+
+    private static int countVar(MethodNode method, int opcode, int var) {
+        var count = 0;
+        for (var insn : method.instructions) {
+            if (insn instanceof VarInsnNode varInsn && varInsn.getOpcode() == opcode && varInsn.var == var) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void nestedSpills() {
+        // a + b with both arguments spilled around the handler
+        var method = method("nestedSpills", "(II)I");
+        add(method, new VarInsnNode(Opcodes.ILOAD, 0), new VarInsnNode(Opcodes.ILOAD, 1));
+        this.begin(method);
+        add(method, new VarInsnNode(Opcodes.ISTORE, 2), new VarInsnNode(Opcodes.ISTORE, 3),
+            new VarInsnNode(Opcodes.ILOAD, 3), new VarInsnNode(Opcodes.ILOAD, 2));
+        this.end(method);
+        add(method, new InsnNode(Opcodes.IADD), new InsnNode(Opcodes.IRETURN));
+        method.maxStack = 2;
+        method.maxLocals = 4;
+        assertTrue(PeepholeOptimizer.optimize(method, this.regions));
+        assertEquals(3, invoke(method, 1, 2));
+        assertEquals(0, count(method, Opcodes.ISTORE));
+        assertEquals(2, count(method, Opcodes.ILOAD));
+        assertEquals(4, method.maxLocals);
+    }
+
+    @Test
+    void wideTypes() {
+        // a + a + a, slot 4 is read again after the reload and must stay
+        var method = method("wideTypes", "(J)J");
+        this.begin(method);
+        add(method, new VarInsnNode(Opcodes.LLOAD, 0), new VarInsnNode(Opcodes.LSTORE, 2), new VarInsnNode(Opcodes.LLOAD, 2),
+            new VarInsnNode(Opcodes.LLOAD, 0), new VarInsnNode(Opcodes.LSTORE, 4), new VarInsnNode(Opcodes.LLOAD, 4),
+            new InsnNode(Opcodes.LADD), new VarInsnNode(Opcodes.LLOAD, 4), new InsnNode(Opcodes.LADD));
+        this.end(method);
+        add(method, new InsnNode(Opcodes.LRETURN));
+        method.maxStack = 4;
+        method.maxLocals = 6;
+        assertTrue(PeepholeOptimizer.optimize(method, this.regions));
+        assertEquals(9L, invoke(method, 3L));
+        assertEquals(0, countVar(method, Opcodes.LSTORE, 2));
+        assertEquals(1, countVar(method, Opcodes.LSTORE, 4));
+        assertEquals(2, countVar(method, Opcodes.LLOAD, 4));
+    }
+
+    @Test
+    void tryCatchReadsSlot() {
+        // int x = 0; try { x = parseInt(s); return x; } catch (NumberFormatException e) { return x; }
+        var method = method("tryCatchReadsSlot", "(Ljava/lang/String;)I");
+        var start = new LabelNode();
+        var end = new LabelNode();
+        var handler = new LabelNode();
+        add(method, new InsnNode(Opcodes.ICONST_0), new VarInsnNode(Opcodes.ISTORE, 1));
+        this.begin(method);
+        add(method, start, new VarInsnNode(Opcodes.ALOAD, 0),
+            new MethodInsnNode(Opcodes.INVOKESTATIC, "java/lang/Integer", "parseInt", "(Ljava/lang/String;)I", false),
+            new VarInsnNode(Opcodes.ISTORE, 1), new VarInsnNode(Opcodes.ILOAD, 1), end);
+        this.end(method);
+        add(method, new InsnNode(Opcodes.IRETURN), handler,
+            new FrameNode(Opcodes.F_NEW, 2, new Object[]{"java/lang/String", Opcodes.INTEGER}, 1, new Object[]{"java/lang/NumberFormatException"}),
+            new InsnNode(Opcodes.POP), new VarInsnNode(Opcodes.ILOAD, 1), new InsnNode(Opcodes.IRETURN));
+        method.tryCatchBlocks.add(new TryCatchBlockNode(start, end, handler, "java/lang/NumberFormatException"));
+        method.maxStack = 1;
+        method.maxLocals = 2;
+        assertFalse(PeepholeOptimizer.optimize(method, this.regions));
+        assertEquals(5, invoke(method, "5"));
+        assertEquals(0, invoke(method, "x"));
+    }
+
+    @Test
+    void tryCatchRangeEmptied() {
+        var method = method("tryCatchRangeEmptied", "(I)I");
+        var start = new LabelNode();
+        var end = new LabelNode();
+        var handler = new LabelNode();
+        add(method, new VarInsnNode(Opcodes.ILOAD, 0));
+        this.begin(method);
+        add(method, start, new VarInsnNode(Opcodes.ISTORE, 1), new VarInsnNode(Opcodes.ILOAD, 1), end);
+        this.end(method);
+        add(method, new InsnNode(Opcodes.IRETURN), handler,
+            new FrameNode(Opcodes.F_NEW, 1, new Object[]{Opcodes.INTEGER}, 1, new Object[]{"java/lang/Throwable"}),
+            new InsnNode(Opcodes.ATHROW));
+        method.tryCatchBlocks.add(new TryCatchBlockNode(start, end, handler, null));
+        method.maxStack = 1;
+        method.maxLocals = 2;
+        assertTrue(PeepholeOptimizer.optimize(method, this.regions));
+        assertTrue(method.tryCatchBlocks.isEmpty());
+        assertEquals(7, invoke(method, 7));
+    }
+
+    @Test
+    void frameAtMergePoint() {
+        // both branches spill into slot 1, the frame after the merge declares it
+        var method = method("frameAtMergePoint", "(I)I");
+        var orElse = new LabelNode();
+        var merge = new LabelNode();
+        add(method, new VarInsnNode(Opcodes.ILOAD, 0), new JumpInsnNode(Opcodes.IFEQ, orElse));
+        this.begin(method);
+        add(method, new IntInsnNode(Opcodes.BIPUSH, 10), new VarInsnNode(Opcodes.ISTORE, 1), new VarInsnNode(Opcodes.ILOAD, 1));
+        this.end(method);
+        add(method, new JumpInsnNode(Opcodes.GOTO, merge), orElse,
+            new FrameNode(Opcodes.F_NEW, 1, new Object[]{Opcodes.INTEGER}, 0, new Object[0]));
+        this.begin(method);
+        add(method, new IntInsnNode(Opcodes.BIPUSH, 20), new VarInsnNode(Opcodes.ISTORE, 1), new VarInsnNode(Opcodes.ILOAD, 1));
+        this.end(method);
+        var mergeFrame = new FrameNode(Opcodes.F_NEW, 2, new Object[]{Opcodes.INTEGER, Opcodes.INTEGER}, 1, new Object[]{Opcodes.INTEGER});
+        add(method, merge, mergeFrame, new InsnNode(Opcodes.IRETURN));
+        method.maxStack = 1;
+        method.maxLocals = 2;
+        assertTrue(PeepholeOptimizer.optimize(method, this.regions));
+        assertEquals(10, invoke(method, 1));
+        assertEquals(20, invoke(method, 0));
+        assertEquals(List.of(Opcodes.INTEGER), mergeFrame.local);
+        assertEquals(2, method.maxLocals);
+    }
+
+    @Test
+    void originalCodeKept() {
+        var method = method("originalCodeKept", "(I)Ljava/lang/Object;");
+        var first = new LabelNode();
+        var last = new LabelNode();
+        var inner = new LabelNode();
+        add(method, first, new VarInsnNode(Opcodes.ILOAD, 0), new VarInsnNode(Opcodes.ISTORE, 1), new VarInsnNode(Opcodes.ILOAD, 1));
+        this.begin(method);
+        add(method, inner, new VarInsnNode(Opcodes.ISTORE, 2), new VarInsnNode(Opcodes.ILOAD, 2), new InsnNode(Opcodes.POP),
+            new LdcInsnNode("a"), new TypeInsnNode(Opcodes.CHECKCAST, "java/lang/String"), new InsnNode(Opcodes.POP));
+        this.end(method);
+        add(method, new LdcInsnNode("b"), new TypeInsnNode(Opcodes.CHECKCAST, "java/lang/String"), new InsnNode(Opcodes.ARETURN), last);
+        method.localVariables = new ArrayList<>(List.of(
+            new LocalVariableNode("x", "I", null, first, last, 1),
+            new LocalVariableNode("spill", "I", null, inner, last, 2)));
+        method.maxStack = 1;
+        method.maxLocals = 3;
+        assertTrue(PeepholeOptimizer.optimize(method, this.regions));
+        assertEquals("b", invoke(method, 1));
+        assertEquals(1, countVar(method, Opcodes.ISTORE, 1));
+        assertEquals(0, countVar(method, Opcodes.ISTORE, 2));
+        assertEquals(1, count(method, Opcodes.CHECKCAST));
+        assertEquals(1, method.localVariables.size());
+        assertEquals("x", method.localVariables.get(0).name);
+        assertEquals(3, method.maxLocals);
+    }
+}
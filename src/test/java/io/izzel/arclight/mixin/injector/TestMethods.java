@@ -0,0 +1,70 @@
+package io.izzel.arclight.mixin.injector;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.lang.reflect.Method;
+
+/**
+ * Loads hand written methods into a class of their own, frames are checked by the verifier of the running JVM.
+ */
+final class TestMethods {
+
+    private TestMethods() {
+    }
+
+    static MethodNode method(String name, String desc) {
+        var method = new MethodNode(Opcodes.ASM9, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, name, desc, null, null);
+        method.visitCode();
+        return method;
+    }
+
+    static Method define(MethodNode method) {
+        var classNode = new ClassNode();
+        classNode.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, "Test" + method.name, null, "java/lang/Object", null);
+        classNode.methods.add(method);
+        var writer = new ClassWriter(0);
+        classNode.accept(writer);
+        var bytes = writer.toByteArray();
+        var loader = new ClassLoader(TestMethods.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                if (name.equals(classNode.name)) {
+                    return this.defineClass(name, bytes, 0, bytes.length);
+                }
+                throw new ClassNotFoundException(name);
+            }
+        };
+        try {
+            var cl = loader.loadClass(classNode.name);
+            for (var m : cl.getDeclaredMethods()) {
+                if (m.getName().equals(method.name)) {
+                    return m;
+                }
+            }
+            throw new NoSuchMethodException(method.name);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static Object invoke(MethodNode method, Object... args) {
+        try {
+            return define(method).invoke(null, args);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static int count(MethodNode method, int opcode) {
+        var count = 0;
+        for (var insn : method.instructions) {
+            if (insn.getOpcode() == opcode) {
+                count++;
+            }
+        }
+        return count;
+    }
+}